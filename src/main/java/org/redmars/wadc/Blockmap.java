@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+import java.nio.IntBuffer;
+
+/*
+ * the BLOCKMAP: the map cut into 128x128 blocks, each with a list of
+ * the lines that touch it, which the engine uses for collisions.
+ *
+ * each line is added to the blocks it crosses in one pass: for every
+ * row of blocks it spans, the part of the line inside that row gives
+ * the columns. blocks with the same list (most often the empty one)
+ * share it, which is what keeps big maps under vanilla's 64KB.
+ *
+ * like Bsp this works on the lines Wad writes, in doom's coordinates.
+ */
+
+class Blockmap {
+  static final int SIZE = 128;
+
+  int x0, y0, columns, rows;
+  int offsets[];          // where each block's list is, in shorts, by row
+  ArrayList<int[]> unique = new ArrayList<>();    // the lists, in that order
+  int words;              // size of the lump, in shorts
+
+  Blockmap(ArrayList<Line> lines) {
+    int minx = Integer.MAX_VALUE, miny = Integer.MAX_VALUE;
+    int maxx = Integer.MIN_VALUE, maxy = Integer.MIN_VALUE;
+    for(Line l : lines) {
+      minx = Math.min(minx, Math.min(-l.from.x, -l.to.x));
+      maxx = Math.max(maxx, Math.max(-l.from.x, -l.to.x));
+      miny = Math.min(miny, Math.min(l.from.y, l.to.y));
+      maxy = Math.max(maxy, Math.max(l.from.y, l.to.y));
+    };
+    if(lines.isEmpty()) minx = miny = maxx = maxy = 0;
+    // a little room round the edges, as other builders leave
+    x0 = minx-8;
+    y0 = miny-8;
+    columns = (maxx-x0)/SIZE+1;
+    rows = (maxy-y0)/SIZE+1;
+
+    int count[] = new int[columns*rows];
+    int cell[][] = new int[columns*rows][];
+    for(int i = 0; i<lines.size(); i++) {
+      Line l = lines.get(i);
+      for(int b : blocks(-l.from.x-x0, l.from.y-y0, -l.to.x-x0, l.to.y-y0)) {
+        if(cell[b]==null) cell[b] = new int[4];
+        if(count[b]==cell[b].length) cell[b] = Arrays.copyOf(cell[b], 2*count[b]);
+        cell[b][count[b]++] = i;
+      };
+    };
+
+    // header, then an offset per block, then the lists
+    offsets = new int[columns*rows];
+    words = 4+columns*rows;
+    HashMap<IntBuffer, Integer> seen = new HashMap<>();
+    for(int b = 0; b<columns*rows; b++) {
+      int list[] = cell[b]==null ? new int[0] : Arrays.copyOf(cell[b], count[b]);
+      Integer at = seen.get(IntBuffer.wrap(list));
+      if(at==null) {
+        at = words;
+        seen.put(IntBuffer.wrap(list), at);
+        unique.add(list);
+        words += list.length+2;
+      };
+      offsets[b] = at;
+    };
+  }
+
+  // the blocks the line from (ax,ay) to (bx,by) touches, relative to x0,y0
+  ArrayList<Integer> blocks(int ax, int ay, int bx, int by) {
+    ArrayList<Integer> r = new ArrayList<>();
+    if(ay>by) {
+      int t = ax; ax = bx; bx = t;
+      t = ay; ay = by; by = t;
+    };
+    for(int row = ay/SIZE; row<=by/SIZE; row++) {
+      // the part of the line within this row
+      double lo = Math.max(ay, row*SIZE), hi = Math.min(by, (row+1)*SIZE);
+      double xlo, xhi;
+      if(ay==by) {
+        xlo = ax;
+        xhi = bx;
+      } else {
+        xlo = ax+(bx-ax)*(lo-ay)/(by-ay);
+        xhi = ax+(bx-ax)*(hi-ay)/(by-ay);
+      };
+      int c1 = (int)Math.floor(Math.min(xlo,xhi))/SIZE;
+      int c2 = (int)Math.floor(Math.max(xlo,xhi))/SIZE;
+      for(int c = c1; c<=c2; c++) r.add(row*columns+c);
+    };
+    return r;
+  }
+
+  // vanilla reads the offsets as signed shorts
+  boolean toobig() { return words>0x8000; }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+import java.nio.IntBuffer;
+import java.util.stream.IntStream;
+
+/*
+ * builds the BSP tree (NODES, SEGS, SSECTORS) for the lines Wad writes,
+ * so the map can be played without running a node builder over it.
+ *
+ * every side of every line starts out as a seg. while a set of segs
+ * isn't convex, one of their lines is picked to split it in two: the
+ * one that cuts the fewest segs and leaves the two halves most even.
+ * the candidates are scored in parallel on the fork-join pool; the
+ * winner is picked in a fixed order, so the tree is always the same.
+ * a subsector can only be in one sector, so a convex set with segs of
+ * more than one is split too, see chord().
+ *
+ * works in doom's coordinates (x mirrored, see Wad.writevertices).
+ * segs are cut where they really cross a partition, to 16.16 (GlNodes
+ * needs them there), and only rounded to whole coordinates for SEGS.
+ * vertices made by splitting segs come after the map's own ones.
+ *
+ * every node covers a region of the map, and what's built under it
+ * depends on nothing but the segs in that region (when they're sorted
+ * first, not even on their order). so in the GUI, where the same map is
+ * saved again and again, the nodes of the last map saved are kept, by a
+ * hash of their segs: an edit then only rebuilds the regions it
+ * touched, and the rest of the tree is copied over. a node is only
+ * copied if it was built from as many segs, in the same box, as well as
+ * with the same hash. the command line saves a map once, so it doesn't
+ * sort or hash at all.
+ */
+
+class Bsp {
+  static final int FRONT = 0, BACK = 1, SPLIT = 2;
+  static final int SPLITCOST = 8;
+  static final int MAXCANDIDATES = 256;   // partitions tried per node
+  static final int PARALLEL = 20000;      // segs*candidates worth forking for
+
+  ArrayList<Line> lines;
+  HashMap<Long, Integer> vertexidx = new HashMap<>();
+  int orig;               // vertices the map had before any were split
+  ArrayList<int[]> newvertices = new ArrayList<>();
+  BspNode root;
+  int reused;             // nodes and subsectors copied from the last build
+
+  // the nodes of the last tree built with a name, by the hash of their segs
+  static String lastname;
+  static HashMap<Long, BspNode> last;
+  HashMap<Long, BspNode> previous;
+  HashMap<Long, BspNode> kept;          // null if the nodes aren't being kept
+  HashMap<IntBuffer, Integer> lineidx = new HashMap<>();
+
+  // lumps, filled in by write()
+  ArrayList<BspSeg> segs = new ArrayList<>();
+  ArrayList<BspNode> leaves = new ArrayList<>();
+  ArrayList<BspNode> nodes = new ArrayList<>();
+
+  Bsp(ArrayList<Line> written, Vector<Vertex> vertices, String name) {
+    lines = written;
+    orig = vertices.size();
+    for(Vertex v : vertices) vertexidx.putIfAbsent(key(-v.x, v.y), v.idx);
+    ArrayList<BspSeg> all = new ArrayList<>();
+    boolean same = false;     // two lines in the same place
+    for(int i = 0; i<lines.size(); i++) {
+      Line l = lines.get(i);
+      int x1 = -l.from.x, y1 = l.from.y, x2 = -l.to.x, y2 = l.to.y;
+      if(x1==x2 && y1==y2) continue;
+      BspSeg s = new BspSeg(x1, y1, x2, y2, i, 0, 0);
+      s.sector = l.left.s.idx;
+      all.add(s);
+      if(l.right!=null) {
+        s = new BspSeg(x2, y2, x1, y1, i, 1, 0);
+        s.sector = l.right.s.idx;
+        all.add(s);
+      };
+      if(lineidx.put(IntBuffer.wrap(new int[] { x1, y1, x2, y2 }), i)!=null) same = true;
+    };
+    // segs are only told apart by where they are, so those would get mixed up
+    if(name!=null && !same) {
+      if(name.equals(lastname)) previous = last;
+      kept = new HashMap<>();
+      all.sort(Bsp::compare);
+    };
+    // only the one map, so an old tree isn't held on to
+    if(name!=null) {
+      lastname = null;
+      last = null;
+    };
+    if(all.isEmpty()) return;
+    root = build(all);
+    number(root);
+    if(kept!=null) {
+      lastname = name;
+      last = kept;
+    };
+  }
+
+  static long key(int x, int y) { return ((long)x<<32) | (y & 0xffffffffL); }
+
+  int vertex(int x, int y) {
+    Integer i = vertexidx.get(key(x,y));
+    if(i!=null) return i;
+    i = orig+newvertices.size();
+    vertexidx.put(key(x,y), i);
+    newvertices.add(new int[] { x, y });
+    return i;
+  }
+
+  // which side of p's line (x,y) is on: >0 front, <0 back, 0 if it's
+  // no further off it than rounding to 16.16 can put it. exact, as
+  // 16.16 times a whole number of up to 17 bits fits in a double
+  static double side(BspSeg p, double x, double y) {
+    double d = p.ldy*(x-p.lx) - p.ldx*(y-p.ly);
+    return Math.abs(d)<=(Math.abs(p.ldx)+Math.abs(p.ldy))/65536.0 ? 0 : d;
+  }
+
+  static double fixed(double v) { return Math.round(v*65536)/65536.0; }
+
+  // where s crosses a line it's a and b from, or null if that's an end
+  static double[] cut(BspSeg s, double a, double b) {
+    double t = a/(a-b);
+    double x = fixed(s.ex1+t*(s.ex2-s.ex1)), y = fixed(s.ey1+t*(s.ey2-s.ey1));
+    if((x==s.ex1 && y==s.ey1) || (x==s.ex2 && y==s.ey2)) return null;
+    return new double[] { x, y };
+  }
+
+  static int classify(BspSeg p, BspSeg s) {
+    // pieces of p's own line are on it, even where rounding the ends
+    // of a split has moved them off a little
+    if(s.line==p.line) return s.side==p.side ? FRONT : BACK;
+    double a = side(p, s.ex1, s.ey1);
+    double b = side(p, s.ex2, s.ey2);
+    if(a==0 && b==0) return (s.ex2-s.ex1)*p.ldx+(s.ey2-s.ey1)*p.ldy>0 ? FRONT : BACK;
+    if(a>=0 && b>=0) return FRONT;
+    if(a<=0 && b<=0) return BACK;
+    if(cut(s,a,b)!=null) return SPLIT;
+    return Math.abs(a)>Math.abs(b) ? (a>0 ? FRONT : BACK) : (b>0 ? FRONT : BACK);
+  }
+
+  // cost of partitioning segs along c's line, or -1 if it doesn't divide them
+  static long cost(BspSeg c, ArrayList<BspSeg> segs) {
+    int front = 0, back = 0, splits = 0;
+    for(BspSeg s : segs) {
+      switch(classify(c,s)) {
+        case FRONT: front++; break;
+        case BACK: back++; break;
+        default: splits++; break;
+      };
+    };
+    if(back==0 && splits==0) return -1;
+    return (long)SPLITCOST*splits+Math.abs(front-back);
+  }
+
+  BspSeg choose(ArrayList<BspSeg> segs) {
+    int n = segs.size();
+    int step = Math.max(1, n/MAXCANDIDATES);
+    int c = (n+step-1)/step;
+    IntStream r = IntStream.range(0, c);
+    if((long)n*c>=PARALLEL) r = r.parallel();
+    long costs[] = r.mapToLong(i -> cost(segs.get(i*step), segs)).toArray();
+    int best = -1;
+    for(int i = 0; i<c; i++) {
+      if(costs[i]>=0 && (best<0 || costs[i]<costs[best])) best = i;
+    };
+    if(best<0 && step>1) {
+      // the sample was all one-sided: try the rest before giving up
+      for(int i = 0; i<n; i++) if(cost(segs.get(i), segs)>=0) return segs.get(i);
+    };
+    return best<0 ? null : segs.get(best*step);
+  }
+
+  // if the nodes are being kept, segs are in order, see compare()
+  BspNode build(ArrayList<BspSeg> segs) {
+    BspNode n = new BspNode();
+    if(kept!=null) {
+      n.key = hash(segs);
+      n.count = segs.size();
+      n.from = box(segs);
+      BspNode o = previous==null ? null : previous.get(n.key);
+      if(o!=null && o.count==n.count && Arrays.equals(o.from, n.from)) {
+        BspNode c = copy(o);
+        if(c!=null) return c;
+      };
+      kept.put(n.key, n);
+    };
+    BspSeg p = choose(segs);
+    BspSeg behind = null;
+    if(p==null) p = chord(segs);
+    if(p==null) p = behind = stray(segs);
+    if(p==null) {
+      n.segs = segs;
+      n.box = box(segs);
+      return n;
+    };
+    ArrayList<BspSeg> front = new ArrayList<>(), back = new ArrayList<>();
+    boolean split = false;
+    for(BspSeg s : segs) {
+      switch(behind!=null ? (s==behind ? BACK : FRONT) : classify(p,s)) {
+        case FRONT: front.add(s); break;
+        case BACK: back.add(s); break;
+        default: {
+          double a = side(p, s.ex1, s.ey1);
+          double m[] = cut(s, a, side(p, s.ex2, s.ey2));
+          BspSeg s1 = new BspSeg(s, s.ex1, s.ey1, m[0], m[1], s.offset);
+          BspSeg s2 = new BspSeg(s, m[0], m[1], s.ex2, s.ey2,
+                                 s.offset+(int)Math.round(Math.hypot(m[0]-s.ex1, m[1]-s.ey1)));
+          (a>0 ? front : back).add(s1);
+          (a>0 ? back : front).add(s2);
+          split = true;
+        }
+      };
+    };
+    // the rest are still in order, but the new pieces aren't
+    if(split && kept!=null) {
+      front.sort(Bsp::compare);
+      back.sort(Bsp::compare);
+    };
+    n.x = p.lx;
+    n.y = p.ly;
+    n.dx = p.ldx;
+    n.dy = p.ldy;
+    n.front = build(front);
+    n.back = build(back);
+    n.box = union(n.front.box, n.back.box);
+    return n;
+  }
+
+  /*
+   * segs that are convex but in more than one sector (where the map has
+   * two sectors meeting with no line between them) are split along a
+   * line with the segs of the sector with fewest segs behind it and
+   * everything else in front: the line from where their run starts to
+   * where it ends, or else one through an end of theirs, going along or
+   * across some seg. null if they're all in the same sector, or no such
+   * line divides them.
+   */
+  static BspSeg chord(ArrayList<BspSeg> segs) {
+    int sector = fewest(segs);
+    if(sector<0) return null;
+    HashSet<Long> starts = new HashSet<>(), ends = new HashSet<>();
+    for(BspSeg s : segs) {
+      if(s.sector!=sector) continue;
+      starts.add(key(s.x1, s.y1));
+      ends.add(key(s.x2, s.y2));
+    };
+    BspSeg a = null, b = null;
+    for(BspSeg s : segs) {
+      if(s.sector!=sector) continue;
+      if(!ends.contains(key(s.x1, s.y1))) a = s;
+      if(!starts.contains(key(s.x2, s.y2))) b = s;
+    };
+    if(a!=null && b!=null && (a.x1!=b.x2 || a.y1!=b.y2)) {
+      BspSeg c = new BspSeg(a.x1, a.y1, b.x2, b.y2, -1, 0, 0);
+      if(divides(c, segs, sector)) return c;
+    };
+    for(BspSeg s : segs) {
+      if(s.sector!=sector) continue;
+      for(int e[] : new int[][] { { s.x1, s.y1 }, { s.x2, s.y2 } }) {
+        for(BspSeg d : segs) {
+          for(int w[] : new int[][] { { d.ldx, d.ldy }, { -d.ldy, d.ldx }, { -d.ldx, -d.ldy }, { d.ldy, -d.ldx } }) {
+            BspSeg c = new BspSeg(e[0], e[1], e[0]+w[0], e[1]+w[1], -1, 0, 0);
+            if(divides(c, segs, sector)) return c;
+          };
+        };
+      };
+    };
+    return null;
+  }
+
+  static boolean divides(BspSeg c, ArrayList<BspSeg> segs, int sector) {
+    for(BspSeg s : segs) {
+      if(classify(c, s)!=(s.sector==sector ? BACK : FRONT)) return false;
+    };
+    return true;
+  }
+
+  /*
+   * failing that, along the line of the first seg of that sector, with
+   * that seg alone behind it, as everything else is in front of its
+   * line anyway
+   */
+  static BspSeg stray(ArrayList<BspSeg> segs) {
+    int sector = fewest(segs);
+    if(sector<0) return null;
+    for(BspSeg s : segs) if(s.sector==sector) return s;
+    return null;
+  }
+
+  // the sector with fewest segs (the lowest, if there's a tie), or -1
+  // if they're all in the same one
+  static int fewest(ArrayList<BspSeg> segs) {
+    HashMap<Integer, Integer> count = new HashMap<>();
+    for(BspSeg s : segs) count.merge(s.sector, 1, Integer::sum);
+    if(count.size()<2) return -1;
+    int best = -1;
+    for(int k : count.keySet()) {
+      if(best<0 || count.get(k)<count.get(best) || (count.get(k).equals(count.get(best)) && k<best)) best = k;
+    };
+    return best;
+  }
+
+  static int compare(BspSeg a, BspSeg b) {
+    for(int i = 0; i<BspSeg.FIELDS; i++) {
+      int c = a.field(i), d = b.field(i);
+      if(c!=d) return c<d ? -1 : 1;
+    };
+    return 0;
+  }
+
+  static long hash(ArrayList<BspSeg> segs) {
+    long h = 0xcbf29ce484222325L;
+    for(BspSeg s : segs) {
+      for(int i = 0; i<BspSeg.FIELDS; i++) h = (h^s.field(i))*0x100000001b3L;
+    };
+    return h;
+  }
+
+  // a node from the last build, with the same segs as these lines have now
+  BspNode copy(BspNode o) {
+    BspNode n = new BspNode();
+    n.key = o.key;
+    n.count = o.count;
+    n.from = o.from;
+    n.box = o.box;
+    if(o.segs!=null) {
+      n.segs = new ArrayList<>();
+      for(BspSeg s : o.segs) {
+        Integer l = lineidx.get(IntBuffer.wrap(s.side==0 ? new int[] { s.lx, s.ly, s.lx+s.ldx, s.ly+s.ldy }
+                                                         : new int[] { s.lx+s.ldx, s.ly+s.ldy, s.lx, s.ly }));
+        if(l==null) return null;
+        BspSeg c = new BspSeg(s, s.ex1, s.ey1, s.ex2, s.ey2, s.offset);
+        c.line = l;
+        n.segs.add(c);
+      };
+    } else {
+      n.x = o.x; n.y = o.y; n.dx = o.dx; n.dy = o.dy;
+      n.front = copy(o.front);
+      n.back = copy(o.back);
+      if(n.front==null || n.back==null) return null;
+    };
+    kept.put(n.key, n);
+    reused++;
+    return n;
+  }
+
+  // top, bottom, left, right
+  static int[] box(ArrayList<BspSeg> segs) {
+    int b[] = { Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE };
+    for(BspSeg s : segs) {
+      b[0] = Math.max(b[0], Math.max(s.y1, s.y2));
+      b[1] = Math.min(b[1], Math.min(s.y1, s.y2));
+      b[2] = Math.min(b[2], Math.min(s.x1, s.x2));
+      b[3] = Math.max(b[3], Math.max(s.x1, s.x2));
+    };
+    return b;
+  }
+
+  static int[] union(int a[], int b[]) {
+    return new int[] { Math.max(a[0],b[0]), Math.min(a[1],b[1]), Math.min(a[2],b[2]), Math.max(a[3],b[3]) };
+  }
+
+  // children before parents, so the root is the last node
+  void number(BspNode n) {
+    if(n.segs!=null) {
+      n.idx = leaves.size();
+      n.first = segs.size();
+      // rounding can make nothing of a short piece: SEGS leaves those
+      // out, unless that would leave none
+      boolean some = false;
+      for(BspSeg s : n.segs) some |= s.x1!=s.x2 || s.y1!=s.y2;
+      for(BspSeg s : n.segs) {
+        if(some && s.x1==s.x2 && s.y1==s.y2) continue;
+        s.v1 = vertex(s.x1, s.y1);
+        s.v2 = vertex(s.x2, s.y2);
+        segs.add(s);
+      };
+      n.written = segs.size()-n.first;
+      leaves.add(n);
+      return;
+    };
+    number(n.front);
+    number(n.back);
+    n.idx = nodes.size();
+    nodes.add(n);
+  }
+
+  // how a node refers to a child
+  static int child(BspNode n) { return n.segs!=null ? n.idx|0x8000 : n.idx; }
+
+  // a node's partition line, shortened if need be to fit in shorts
+  static int[] partition(BspNode n) {
+    int dx = n.dx, dy = n.dy;
+    while(dx<-32768 || dx>32767 || dy<-32768 || dy>32767) {
+      dx /= 2;
+      dy /= 2;
+    };
+    return new int[] { n.x, n.y, dx, dy };
+  }
+
+  // binary angle of a seg's line
+  static int angle(BspSeg s) {
+    return (int)Math.round(Math.atan2(s.ldy, s.ldx)*32768.0/Math.PI) & 0xffff;
+  }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * a node of the tree, or a subsector if segs is set
+ */
+class BspNode {
+  int x, y, dx, dy;
+  BspNode front, back;
+  ArrayList<BspSeg> segs;
+  int box[];
+  int idx;
+  int first;      // a subsector's first seg
+  int written;    // and how many of its segs are in SEGS
+  long key;       // hash of the segs it was built from
+  int count;      // how many there were
+  int from[];     // and their box
+}
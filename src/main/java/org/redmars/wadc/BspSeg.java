@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * a piece of one side of a line. lx,ly,ldx,ldy is the whole line, in
+ * the direction of this side, which is what partitions are made of.
+ * x1,y1,x2,y2 is where SEGS has it, rounded to whole coordinates; it's
+ * cut and sorted by where it really is, ex1,ey1,ex2,ey2, in 16.16
+ */
+class BspSeg {
+  int x1, y1, x2, y2;
+  double ex1, ey1, ex2, ey2;
+  int line, side, offset;
+  int sector;     // of this side of the line
+  int lx, ly, ldx, ldy;
+  int v1, v2;
+
+  BspSeg(int ax, int ay, int bx, int by, int l, int s, int o) {
+    x1 = ax; y1 = ay; x2 = bx; y2 = by;
+    line = l; side = s; offset = o;
+    lx = ax; ly = ay; ldx = bx-ax; ldy = by-ay;
+    ex1 = ax; ey1 = ay; ex2 = bx; ey2 = by;
+  }
+
+  // a piece of s, from (ax,ay) to (bx,by)
+  BspSeg(BspSeg s, double ax, double ay, double bx, double by, int o) {
+    this((int)Math.round(ax), (int)Math.round(ay), (int)Math.round(bx), (int)Math.round(by), s.line, s.side, o);
+    ex1 = ax; ey1 = ay; ex2 = bx; ey2 = by;
+    setline(s);
+  }
+
+  // the line (and sector) of the seg this is a piece of
+  void setline(BspSeg s) {
+    lx = s.lx; ly = s.ly; ldx = s.ldx; ldy = s.ldy;
+    sector = s.sector;
+  }
+
+  // all that decides what is built from a seg
+  static final int FIELDS = 15;
+  int field(int i) {
+    switch(i) {
+      case 0: return x1;
+      case 1: return y1;
+      case 2: return x2;
+      case 3: return y2;
+      case 4: return lx;
+      case 5: return ly;
+      case 6: return ldx;
+      case 7: return ldy;
+      case 8: return side;
+      case 9: return offset;
+      case 10: return (int)Math.round(ex1*65536);
+      case 11: return (int)Math.round(ey1*65536);
+      case 12: return (int)Math.round(ex2*65536);
+      case 13: return (int)Math.round(ey2*65536);
+      default: return sector;
+    }
+  }
+}
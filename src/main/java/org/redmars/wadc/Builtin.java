@@ -10,9 +10,12 @@ package org.redmars.wadc;
 import java.util.*;
 
 class Builtin {
-  static Exp n = new Int(0);
+  static Exp n = Int.of(0);
   Vector args = null;
   int nargs;
+  boolean pure = false;   // no side effects, result depends only on the arguments
+  boolean lazy = false;   // gets its arguments unevaluated, see WadRun.lazybuiltin
+  int nstrict = 0;        // how many of those (from the left) it always evaluates
   Exp eval() { return null; }
   Exp eval(Exp a) { return null; }
   Exp eval(Exp a, Exp b) { return null; }
@@ -20,5 +23,7 @@ class Builtin {
   Exp eval(Exp a, Exp b, Exp c, Exp d) { return null; }
   Exp eval(Exp a, Exp b, Exp c, Exp d, Exp e) { return null; }
   Exp eval(Exp a, Exp b, Exp c, Exp d, Exp e, Exp f) { return null; }
+  Exp eval(WadRun wr, Frame a) { return null; }
+  boolean strict(int i) { return !lazy || i<nstrict; }
 };
 
@@ -20,9 +20,22 @@ class Choice extends Exp {
   }
 
   Vector v = new Vector();
+  int id;             // numbered within its function, for compiled code
   void add(Exp e) { v.addElement(e); }
-  Exp replace(Vector n, Vector r) {
-    return ((Exp)v.elementAt(Math.abs(rnd.nextInt())%v.size())).replace(n,r);
+  // whichever gets chosen
+  BitSet strict(WadRun wr) {
+    BitSet s = ((Exp)v.elementAt(0)).strict(wr);
+    for(int i = 1;i<v.size();i++) s.and(((Exp)v.elementAt(i)).strict(wr));
+    return s;
+  }
+  boolean haschoice() { return true; }
+  void draw(int picks[]) {
+    int i = Math.abs(rnd.nextInt())%v.size();
+    picks[id] = i;
+    ((Exp)v.elementAt(i)).draw(picks);
+  }
+  Exp choose() {
+    return ((Exp)v.elementAt(Math.abs(rnd.nextInt())%v.size())).choose();
   }
   String show() { return "[choice]"; };
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * a function body or argument compiled for the vm (WadRun.exec).
+ * each argument of a user function call gets its own Code, so it can
+ * sit in a Frame and be run when (and as often as) it is used, exactly
+ * like the expression it was compiled from.
+ *
+ * instructions are an opcode followed by its operands:
+ *
+ *   PUSH k         push k[k]
+ *   ARG a          push argument a of the current frame
+ *   POP            drop the top of the stack
+ *   JF l           pop, and jump to l if it was 0
+ *   JMP l          jump to l
+ *   CHOOSE c n l*  jump to the l picked for choice c when the function was called
+ *   EVAL k         push k[k] evaluated by the interpreter
+ *   TRACE s        note call site s on the stack trace
+ *   BUILTIN s      pop the arguments, call builtin site s, untrace
+ *   CALL s         call user function site s with argv[s]
+ *   TCALL s        the same as the last thing a function does: return
+ *                  WadRun.TAILCALL and let vmcall make the call
+ *   LAZY s         call lazy builtin site s with argv[s]
+ *   ADD .. CAT     builtins done in place
+ *   DIV s          also needs its site for the error message
+ *   RET            return the top of the stack
+ */
+
+class Code extends Exp {
+  static final int PUSH = 0, ARG = 1, POP = 2, JF = 3, JMP = 4, CHOOSE = 5,
+                   EVAL = 6, TRACE = 7, BUILTIN = 8, CALL = 9, RET = 10,
+                   ADD = 11, SUB = 12, MUL = 13, DIV = 14, AND = 15, OR = 16,
+                   NOT = 17, EQ = 18, LE = 19, CAT = 20, TCALL = 21, LAZY = 22;
+
+  Exp src;              // what this was compiled from
+  int code[];
+  Exp k[];              // constants
+  Id site[];            // call sites
+  Fun fun[];            // what each site calls
+  Exp argv[][];         // argument code for each user function or lazy builtin site
+  int maxstack;
+
+  Code(Exp e) { src = e; }
+
+  Exp eval(WadRun wr, Frame env) { return wr.exec(this,env); }
+  boolean pure(WadRun wr, Frame env) { return src.pure(wr,env); }
+  int argslot() { return src.argslot(); }
+  String show() { return src.show(); }
+  String show(Frame env) { return src.show(env); }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * compiles function bodies to Code for the vm. anything the vm has no
+ * instruction for, or that would fail (unknown functions, wrong number
+ * of arguments), is left to the interpreter with EVAL, so errors come
+ * out the same and at the same moment.
+ */
+
+class CodeGen {
+  static HashMap<String, Integer> ops = new HashMap<>();
+  static {
+    ops.put("add", Code.ADD);
+    ops.put("sub", Code.SUB);
+    ops.put("mul", Code.MUL);
+    ops.put("div", Code.DIV);
+    ops.put("and", Code.AND);
+    ops.put("or", Code.OR);
+    ops.put("not", Code.NOT);
+    ops.put("eq", Code.EQ);
+    ops.put("lessthaneq", Code.LE);
+    ops.put("cat", Code.CAT);
+  }
+
+  Hashtable funs;
+  Code c;
+  int code[] = new int[64];
+  int pc = 0;
+  int depth = 0;
+  ArrayList<Exp> k = new ArrayList<>();
+  ArrayList<Id> sites = new ArrayList<>();
+  ArrayList<Fun> sitefuns = new ArrayList<>();
+  ArrayList<Exp[]> argv = new ArrayList<>();
+  int choices[];        // shared by all the code of one function
+  boolean body;         // a function body, rather than an argument
+
+  CodeGen(Hashtable f, Exp e, int ch[], boolean b) {
+    funs = f;
+    choices = ch;
+    body = b;
+    c = new Code(e);
+    exp(e,body);
+    emit(Code.RET);
+    c.code = Arrays.copyOf(code, pc);
+    c.k = k.toArray(new Exp[k.size()]);
+    c.site = sites.toArray(new Id[sites.size()]);
+    c.fun = sitefuns.toArray(new Fun[sitefuns.size()]);
+    c.argv = argv.toArray(new Exp[argv.size()][]);
+  }
+
+  static void compile(Hashtable funs) {
+    for(Object o : funs.values()) {
+      Fun f = (Fun)o;
+      if(f.builtin!=null) continue;
+      int ch[] = { 0 };
+      f.code = new CodeGen(funs, f.body, ch, true).c;
+      f.nchoices = ch[0];
+    };
+  }
+
+  void emit(int i) {
+    if(pc==code.length) code = Arrays.copyOf(code, 2*pc);
+    code[pc++] = i;
+  }
+
+  // stack effect of the instruction just emitted
+  void push(int n) {
+    depth += n;
+    if(depth>c.maxstack) c.maxstack = depth;
+  }
+
+  int konst(Exp e) {
+    k.add(e);
+    return k.size()-1;
+  }
+
+  int site(Id i, Fun f) {
+    sites.add(i);
+    sitefuns.add(f);
+    argv.add(null);
+    return sites.size()-1;
+  }
+
+  // tail: the value of e is what the function returns
+  void exp(Exp e, boolean tail) {
+    if(e instanceof Seq) {
+      exp(((Seq)e).x,false);
+      emit(Code.POP); push(-1);
+      exp(((Seq)e).y,tail);
+    } else if(e instanceof If) {
+      If i = (If)e;
+      exp(i.bool,false);
+      emit(Code.JF); push(-1);
+      int jf = pc;
+      emit(0);
+      exp(i.then,tail);
+      emit(Code.JMP);
+      int jmp = pc;
+      emit(0);
+      push(-1);
+      code[jf] = pc;
+      exp(i.els,tail);
+      code[jmp] = pc;
+    } else if(e instanceof Choice) {
+      Choice ch = (Choice)e;
+      ch.id = choices[0]++;
+      int n = ch.v.size();
+      emit(Code.CHOOSE);
+      emit(ch.id);
+      emit(n);
+      int table = pc;
+      for(int i = 0; i<n; i++) emit(0);
+      int ends[] = new int[n];
+      for(int i = 0; i<n; i++) {
+        code[table+i] = pc;
+        exp((Exp)ch.v.elementAt(i),tail);
+        emit(Code.JMP);
+        ends[i] = pc;
+        emit(0);
+        if(i<n-1) push(-1);
+      };
+      for(int i = 0; i<n; i++) code[ends[i]] = pc;
+    } else if(e instanceof Id) {
+      id((Id)e,tail);
+    } else if(e instanceof Int || e instanceof Str) {
+      emit(Code.PUSH); emit(konst(e)); push(1);
+    } else {
+      emit(Code.EVAL); emit(konst(e)); push(1);
+    };
+  }
+
+  void id(Id i, boolean tail) {
+    if(i.slot>=0) {
+      emit(Code.ARG); emit(i.slot); push(1);
+      return;
+    };
+    Fun f = i.fun!=null ? i.fun : (Fun)funs.get(i.s);
+    int n = i.nargs();
+    if(f==null || f.nargs()!=n) {
+      emit(Code.EVAL); emit(konst(i)); push(1);
+      return;
+    };
+    if(f.builtin==null || f.builtin.lazy) {
+      int s = site(i,f);
+      Exp a[] = new Exp[n];
+      for(int j = 0; j<n; j++) a[j] = new CodeGen(funs, (Exp)i.v.elementAt(j), choices, false).c;
+      argv.set(s, a);
+      if(f.builtin!=null) {
+        emit(Code.LAZY);
+      } else {
+        emit(tail && i.fun==f ? Code.TCALL : Code.CALL);
+      };
+      emit(s); push(1);
+      return;
+    };
+    Integer op = ops.get(i.s);
+    if(op!=null) {
+      for(int j = 0; j<n; j++) exp((Exp)i.v.elementAt(j),false);
+      emit(op);
+      if(op==Code.DIV) emit(site(i,f));
+      push(1-n);
+      return;
+    };
+    int s = site(i,f);
+    emit(Code.TRACE); emit(s);
+    for(int j = 0; j<n; j++) exp((Exp)i.v.elementAt(j),false);
+    emit(Code.BUILTIN); emit(s);
+    push(1-n);
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.math.BigInteger;
+import java.util.*;
+
+/*
+ * Delaunay triangulation of a set of distinct integer points, for the
+ * delaunaylandscape mode of landscape.
+ *
+ * points are inserted one at a time into an enclosing triangle,
+ * splitting the triangle (or edge) they land in and then flipping
+ * edges until every triangle's circumcircle is empty again. the
+ * orientation test is exact in long arithmetic; the in-circle test is
+ * done in doubles and redone with BigInteger when it is too close to
+ * call, so the triangulation can't get tangled by rounding.
+ *
+ * the corners of the enclosing triangle are at infinity: any finite
+ * triangle, however large, has circles through its corners that cut
+ * into the hull of nearly collinear points and lose hull edges. corner
+ * i is at (x[i],y[i]) + M*(ux[i],uy[i]) for an M large enough that no
+ * test depends on it, so tests on them are worked out as polynomials
+ * in M and take the sign of the leading term.
+ *
+ * each triangle t has vertices tv[3t..3t+2] in counter-clockwise order,
+ * and tn[3t+i] is the triangle across the edge opposite tv[3t+i].
+ */
+
+class Delaunay {
+  long x[], y[];
+  long ux[], uy[];    // direction to infinity, for the enclosing triangle
+  int n;              // real points; n, n+1, n+2 are the enclosing triangle
+  int tv[], tn[];
+  int ntri = 0;
+  int last = 0;       // where the next point location walk starts
+  int stack[] = new int[64];
+  int sp = 0;
+
+  Delaunay(int xs[], int ys[]) {
+    n = xs.length;
+    x = new long[n+3];
+    y = new long[n+3];
+    long minx = Long.MAX_VALUE, maxx = Long.MIN_VALUE;
+    long miny = Long.MAX_VALUE, maxy = Long.MIN_VALUE;
+    for(int i = 0; i<n; i++) {
+      x[i] = xs[i];
+      y[i] = ys[i];
+      minx = Math.min(minx, x[i]); maxx = Math.max(maxx, x[i]);
+      miny = Math.min(miny, y[i]); maxy = Math.max(maxy, y[i]);
+    }
+    if(n==0) { minx = maxx = miny = maxy = 0; };
+    ux = new long[n+3];
+    uy = new long[n+3];
+    for(int i = n; i<n+3; i++) {
+      x[i] = (minx+maxx)/2;
+      y[i] = (miny+maxy)/2;
+    }
+    ux[n] = -1;   uy[n] = -1;
+    ux[n+1] = 1;  uy[n+1] = -1;
+    ux[n+2] = 0;  uy[n+2] = 1;
+    tv = new int[3*(2*n+4)];
+    tn = new int[3*(2*n+4)];
+    newtri(n, n+1, n+2, -1, -1, -1);
+    for(int i : order()) insert(i);
+  }
+
+  // insert in a snake through a coarse grid, so each walk starts nearby
+  Integer[] order() {
+    Integer o[] = new Integer[n];
+    if(n==0) return o;
+    long minx = x[0], miny = y[0], maxx = x[0], maxy = y[0];
+    for(int i = 0; i<n; i++) {
+      o[i] = i;
+      minx = Math.min(minx, x[i]); maxx = Math.max(maxx, x[i]);
+      miny = Math.min(miny, y[i]); maxy = Math.max(maxy, y[i]);
+    }
+    long cells = Math.max(1, (long)Math.sqrt(n/4.0));
+    long w = (maxx-minx)/cells+1;
+    long h = (maxy-miny)/cells+1;
+    final long mx = minx, my = miny;
+    Arrays.sort(o, (a,b) -> {
+      long ra = (y[a]-my)/h, rb = (y[b]-my)/h;
+      if(ra!=rb) return Long.compare(ra, rb);
+      long ca = (x[a]-mx)/w, cb = (x[b]-mx)/w;
+      if(ca!=cb) return (ra&1)==0 ? Long.compare(ca, cb) : Long.compare(cb, ca);
+      return Long.compare(y[a], y[b]);
+    });
+    return o;
+  }
+
+  int newtri(int a, int b, int c, int na, int nb, int nc) {
+    int t = ntri++;
+    set(t, a, b, c, na, nb, nc);
+    return t;
+  }
+
+  void set(int t, int a, int b, int c, int na, int nb, int nc) {
+    tv[3*t] = a; tv[3*t+1] = b; tv[3*t+2] = c;
+    tn[3*t] = na; tn[3*t+1] = nb; tn[3*t+2] = nc;
+  }
+
+  // in triangle t, point the neighbour link that went to from at to
+  void relink(int t, int from, int to) {
+    if(t<0) return;
+    for(int k = 0; k<3; k++) if(tn[3*t+k]==from) tn[3*t+k] = to;
+  }
+
+  long orient(int a, int b, int c) {
+    if(a>=n || b>=n || c>=n) return orientinf(a, b, c);
+    return (x[b]-x[a])*(y[c]-y[a]) - (y[b]-y[a])*(x[c]-x[a]);
+  }
+
+  long orientinf(int a, int b, int c) {
+    long bx = x[b]-x[a], by = y[b]-y[a], cx = x[c]-x[a], cy = y[c]-y[a];
+    long bux = ux[b]-ux[a], buy = uy[b]-uy[a], cux = ux[c]-ux[a], cuy = uy[c]-uy[a];
+    long m2 = bux*cuy - buy*cux;
+    if(m2!=0) return m2;
+    long m1 = bx*cuy - by*cux + bux*cy - buy*cx;
+    if(m1!=0) return m1;
+    return bx*cy - by*cx;
+  }
+
+  // >0 if d is strictly inside the circumcircle of counter-clockwise a,b,c
+  int incircle(int a, int b, int c, int d) {
+    if(a>=n || b>=n || c>=n || d>=n) return incircleinf(a, b, c, d);
+    double adx = x[a]-x[d], ady = y[a]-y[d];
+    double bdx = x[b]-x[d], bdy = y[b]-y[d];
+    double cdx = x[c]-x[d], cdy = y[c]-y[d];
+    double alift = adx*adx+ady*ady;
+    double blift = bdx*bdx+bdy*bdy;
+    double clift = cdx*cdx+cdy*cdy;
+    double det = alift*(bdx*cdy-cdx*bdy) + blift*(cdx*ady-adx*cdy) + clift*(adx*bdy-bdx*ady);
+    double perm = alift*(Math.abs(bdx*cdy)+Math.abs(cdx*bdy))
+                + blift*(Math.abs(cdx*ady)+Math.abs(adx*cdy))
+                + clift*(Math.abs(adx*bdy)+Math.abs(bdx*ady));
+    if(Math.abs(det)>perm*1e-12) return det>0 ? 1 : -1;
+    BigInteger ax = BigInteger.valueOf(x[a]-x[d]), ay = BigInteger.valueOf(y[a]-y[d]);
+    BigInteger bx = BigInteger.valueOf(x[b]-x[d]), by = BigInteger.valueOf(y[b]-y[d]);
+    BigInteger cx = BigInteger.valueOf(x[c]-x[d]), cy = BigInteger.valueOf(y[c]-y[d]);
+    BigInteger exact = ax.multiply(ax).add(ay.multiply(ay)).multiply(bx.multiply(cy).subtract(cx.multiply(by)))
+                  .add(bx.multiply(bx).add(by.multiply(by)).multiply(cx.multiply(ay).subtract(ax.multiply(cy))))
+                  .add(cx.multiply(cx).add(cy.multiply(cy)).multiply(ax.multiply(by).subtract(bx.multiply(ay))));
+    return exact.signum();
+  }
+
+  // incircle with corners at infinity. the usual cases are quick: a
+  // corner is outside every circle through three points, and a circle
+  // through a corner and two points is in effect the half-plane on the
+  // corner's side of them. otherwise the coordinates relative to d are
+  // polynomials in M, lowest power first
+  int incircleinf(int a, int b, int c, int d) {
+    if(a<n && b<n && c<n) return -1;
+    if(d<n) {
+      long o = 0;
+      if(a<n && b<n && c>=n) o = orient(a, b, d);
+      if(b<n && c<n && a>=n) o = orient(b, c, d);
+      if(c<n && a<n && b>=n) o = orient(c, a, d);
+      if(o!=0) return o>0 ? 1 : -1;
+    };
+    BigInteger ax[] = rel(x, ux, a, d), ay[] = rel(y, uy, a, d);
+    BigInteger bx[] = rel(x, ux, b, d), by[] = rel(y, uy, b, d);
+    BigInteger cx[] = rel(x, ux, c, d), cy[] = rel(y, uy, c, d);
+    BigInteger det[] = add(add(
+      mul(add(mul(ax, ax), mul(ay, ay)), sub(mul(bx, cy), mul(cx, by))),
+      mul(add(mul(bx, bx), mul(by, by)), sub(mul(cx, ay), mul(ax, cy)))),
+      mul(add(mul(cx, cx), mul(cy, cy)), sub(mul(ax, by), mul(bx, ay))));
+    for(int i = det.length-1; i>=0; i--) if(det[i].signum()!=0) return det[i].signum();
+    return 0;
+  }
+
+  static BigInteger[] rel(long v[], long u[], int i, int d) {
+    return new BigInteger[] { BigInteger.valueOf(v[i]-v[d]), BigInteger.valueOf(u[i]-u[d]) };
+  }
+
+  static BigInteger[] mul(BigInteger a[], BigInteger b[]) {
+    BigInteger r[] = new BigInteger[a.length+b.length-1];
+    Arrays.fill(r, BigInteger.ZERO);
+    for(int i = 0; i<a.length; i++) for(int j = 0; j<b.length; j++) r[i+j] = r[i+j].add(a[i].multiply(b[j]));
+    return r;
+  }
+
+  static BigInteger[] add(BigInteger a[], BigInteger b[]) {
+    BigInteger r[] = new BigInteger[Math.max(a.length, b.length)];
+    for(int i = 0; i<r.length; i++) {
+      r[i] = (i<a.length ? a[i] : BigInteger.ZERO).add(i<b.length ? b[i] : BigInteger.ZERO);
+    }
+    return r;
+  }
+
+  static BigInteger[] sub(BigInteger a[], BigInteger b[]) {
+    BigInteger r[] = new BigInteger[b.length];
+    for(int i = 0; i<b.length; i++) r[i] = b[i].negate();
+    return add(a, r);
+  }
+
+  void insert(int p) {
+    // walk towards p until no edge of t has p on its outside
+    int t = last;
+    int on = -1;
+    walk: for(;;) {
+      on = -1;
+      for(int i = 0; i<3; i++) {
+        long o = orient(tv[3*t+(i+1)%3], tv[3*t+(i+2)%3], p);
+        if(o<0) { t = tn[3*t+i]; continue walk; };
+        if(o==0) on = i;
+      }
+      break;
+    }
+    if(on<0) {
+      split(t, p);
+    } else {
+      splitedge(t, on, p);
+    };
+    while(sp>0) legalize(stack[--sp]);
+    last = t;
+  }
+
+  void push(int t) {
+    if(sp==stack.length) stack = Arrays.copyOf(stack, sp*2);
+    stack[sp++] = t;
+  }
+
+  // p strictly inside t: three triangles, each with p first
+  void split(int t, int p) {
+    int a = tv[3*t], b = tv[3*t+1], c = tv[3*t+2];
+    int na = tn[3*t], nb = tn[3*t+1], nc = tn[3*t+2];
+    int t1 = ntri, t2 = ntri+1;
+    set(t, p, b, c, na, t1, t2);
+    newtri(p, c, a, nb, t2, t);
+    newtri(p, a, b, nc, t, t1);
+    relink(nb, t, t1);
+    relink(nc, t, t2);
+    push(t); push(t1); push(t2);
+  }
+
+  // p on the edge of t opposite tv[3t+i]: split t and its neighbour
+  void splitedge(int t, int i, int p) {
+    int a = tv[3*t+i], b = tv[3*t+(i+1)%3], c = tv[3*t+(i+2)%3];
+    int ntb = tn[3*t+(i+1)%3], ntc = tn[3*t+(i+2)%3];
+    int u = tn[3*t+i];
+    int j = 0;
+    while(tn[3*u+j]!=t) j++;
+    int q = tv[3*u+j];
+    int nuc = tn[3*u+(j+1)%3], nub = tn[3*u+(j+2)%3];
+    int t1 = ntri, u1 = ntri+1;
+    set(t, p, a, b, ntc, u1, t1);
+    newtri(p, c, a, ntb, t, u);
+    set(u, p, q, c, nub, t1, u1);
+    newtri(p, b, q, nuc, u, t);
+    relink(ntb, t, t1);
+    relink(nuc, u, u1);
+    push(t); push(t1); push(u); push(u1);
+  }
+
+  // t has the new point first; flip the edge opposite it if illegal
+  void legalize(int t) {
+    int u = tn[3*t];
+    if(u<0) return;
+    int j = 0;
+    while(tn[3*u+j]!=t) j++;
+    int q = tv[3*u+j];
+    if(incircle(tv[3*t], tv[3*t+1], tv[3*t+2], q)<=0) return;
+    int p = tv[3*t], b = tv[3*t+1], c = tv[3*t+2];
+    int nb = tn[3*t+1], nc = tn[3*t+2];
+    int ub = tn[3*u+(j+2)%3], uc = tn[3*u+(j+1)%3];
+    set(t, p, b, q, uc, u, nc);
+    set(u, p, q, c, ub, nb, t);
+    relink(uc, u, t);
+    relink(nb, t, u);
+    push(t); push(u);
+  }
+
+  // each edge between two real points once, as pairs of point indices
+  int[] edges() {
+    int e[] = new int[6*ntri];
+    int ne = 0;
+    for(int t = 0; t<ntri; t++) for(int i = 0; i<3; i++) {
+      int nb = tn[3*t+i];
+      if(nb>=0 && nb<t) continue;
+      int a = tv[3*t+(i+1)%3], b = tv[3*t+(i+2)%3];
+      if(a>=n || b>=n) continue;
+      e[ne++] = a;
+      e[ne++] = b;
+    }
+    return Arrays.copyOf(e, ne);
+  }
+}
@@ -12,13 +12,24 @@ import java.util.*;
 class Exp {
   int ival() { return 0; }
   String sval() { return ""; }
-  Exp eval(WadRun wr) { return this; }
-  Exp replace(Vector n, Vector r) { return this; }
-  Vector replacevector(Vector v, Vector n, Vector r) {
-    Vector newv = new Vector();
-    for(int i = 0;i<v.size();i++) newv.addElement(((Exp)v.elementAt(i)).replace(n,r));
-    return newv;
-  }
+  Exp eval(WadRun wr, Frame env) { return this; }
+  // eval as the last thing a function body does: a call to a user
+  // function can be handed back to WadRun.call as WadRun.TAILCALL
+  Exp tail(WadRun wr, Frame env) { return eval(wr,env); }
+  // true if evaluating this always gives the same value and does nothing else.
+  // with no frame, assumes the enclosing function's arguments are pure
+  boolean pure(WadRun wr, Frame env) { return false; }
+  // the arguments of the enclosing function this is sure to evaluate
+  BitSet strict(WadRun wr) { return new BitSet(); }
+  // which argument of the enclosing function this is a plain reference to
+  int argslot() { return -1; }
+  boolean haschoice() { return false; }
+  // make this function call's choices up front, in the same order as choose()
+  void draw(int picks[]) { }
+  // this with every choice made, in the order the old substitution made them
+  Exp choose() { return this; }
   String show() { return "[exp]"; };
+  // shown with the arguments of the enclosing function filled in from env
+  String show(Frame env) { return show(); }
 }
 
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * the arguments of one call to a user function. function bodies are
+ * shared between calls; an argument reference in the body (Id.slot)
+ * looks up the argument expression here and evaluates it in the
+ * caller's frame, which is what substituting it into the body used
+ * to do.
+ *
+ * arguments are passed by name: `for` and friends rely on their body
+ * argument being run again on every use. an argument that turns out
+ * to be pure (literals, arithmetic on pure things) is kept after its
+ * first use, so counters passed down a recursion like
+ * for(add(from,1),to,body) are worked out once rather than again at
+ * every level.
+ */
+
+class Frame {
+  static final Exp IMPURE = new Exp();
+  static final Exp NOEXP[] = new Exp[0];
+  static final Frame NOENV[] = new Frame[0];
+
+  Exp exp[];        // each argument's expression
+  Frame env[];      // and the frame it is evaluated in
+  Exp val[];        // its value once known, or IMPURE
+  int picks[];      // choices made on entry, for compiled code
+
+  Frame(Exp args[], Frame caller) {
+    int n = args.length;
+    if(n==0) {
+      exp = val = NOEXP;
+      env = NOENV;
+      return;
+    };
+    exp = new Exp[n];
+    env = new Frame[n];
+    val = new Exp[n];
+    for(int i = 0; i<n; i++) {
+      Exp e = args[i];
+      int s = e.argslot();
+      if(s>=0) {
+        // passing an argument straight on: point at what it stands for,
+        // so a loop doesn't build a chain of frames to look through
+        exp[i] = caller.exp[s];
+        env[i] = caller.env[s];
+        val[i] = caller.val[s];
+      } else {
+        exp[i] = e;
+        env[i] = caller;
+      };
+    }
+  }
+
+  Exp arg(WadRun wr, int i) {
+    Exp v = val[i];
+    if(v!=null && v!=IMPURE) return v;
+    Exp r = exp[i].eval(wr,env[i]);
+    if(v==null) {
+      if(exp[i].pure(wr,env[i])) {
+        set(i,r);
+      } else {
+        val[i] = IMPURE;
+      };
+    };
+    return r;
+  }
+
+  // the value of argument i is known: its expression, and the frames
+  // that hangs on to, are no longer needed
+  void set(int i, Exp v) {
+    val[i] = v;
+    exp[i] = null;
+    env[i] = null;
+  }
+
+  boolean argpure(WadRun wr, int i) {
+    if(val[i]==null && !exp[i].pure(wr,env[i])) val[i] = IMPURE;
+    return val[i]!=IMPURE;
+  }
+}
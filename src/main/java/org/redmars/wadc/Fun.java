@@ -14,6 +14,14 @@ class Fun {
   Vector args = new Vector();
   Exp body;
   Builtin builtin = null;
+  boolean choices = false;  // body has choices to make on every call
+  boolean pure = false;     // no side effects, result depends only on the arguments
+  boolean strict[];         // arguments the body always evaluates
+  Code code = null;         // body compiled for the vm
+  int nchoices = 0;
+  boolean shadowable = false;   // a function of the same name in the program replaces it
   Fun(String s) { name = s; }
+  int nargs() { return builtin!=null ? builtin.nargs : args.size(); }
+  boolean eager(int i) { return ((String)args.elementAt(i)).charAt(0)=='_'; }
 }
 
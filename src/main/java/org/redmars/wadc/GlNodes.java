@@ -0,0 +1,431 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * GL nodes (version 5 of the GL_ lumps) for a Bsp, so GL ports can use
+ * our tree instead of building their own when the map loads.
+ *
+ * GL subsectors have to be closed polygons, clockwise, with each seg
+ * starting where the one before it ended. the area a subsector covers
+ * is cut out of a box round the map by the partitions above it and the
+ * lines of its own segs. each seg is put on the edge of that area its
+ * line runs along, and going round the edges, wherever there's a gap
+ * between segs it is closed with minisegs (segs with no line).
+ *
+ * Bsp cuts segs where they really cross a partition, so the subsectors
+ * on either side of one meet along it. they still cut it in different
+ * places, so minisegs are split wherever another one starts or ends
+ * along them. then each seg is given its partner, the seg on the other
+ * side of it between the same two vertices, where there is one. every
+ * miniseg with a subsector behind it should have one.
+ *
+ * corners that don't fall on a vertex the map already has become GL
+ * vertices, in 16.16 fixed point. a point worked out twice can round
+ * to two of those a hair apart, so vertices within ONLINE are one.
+ */
+
+class GlNodes {
+  static final int GLVERTEX = 0x80000000;  // in a seg, v1/v2 is a GL vertex
+  static final int SUBSECTOR = 0x80000000; // in a node, the child is a subsector
+  static final int NOLINE = 0xffff;
+  static final double EPSILON = 1.0/64; // corners this close to a seg's end are left out
+  static final double ONLINE = 1.0/64;  // vertices this close to a miniseg split it
+  static final double ANGLE = 1e-6;
+
+  Bsp bsp;
+  ArrayList<int[]> glvertices = new ArrayList<>();   // fixed point x, y
+  HashMap<Integer, double[]> at = new HashMap<>();   // where the ends of minisegs are
+  HashMap<Long, ArrayList<Integer>> grid = new HashMap<>();   // those, by where they are
+
+  // v1, v2, line, side, partner for every seg, subsector by subsector
+  ArrayList<int[]> segs = new ArrayList<>();
+  int first[], count[];       // each subsector's segs
+  int unpaired;               // minisegs with no partner, but a subsector behind them
+  ArrayList<ArrayList<int[]>> loops = new ArrayList<>();
+
+  GlNodes(Bsp b) {
+    bsp = b;
+    first = new int[bsp.leaves.size()];
+    count = new int[bsp.leaves.size()];
+    if(bsp.root==null) return;
+    int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE;
+    int x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+    for(BspNode n : bsp.leaves) {
+      y2 = Math.max(y2, n.box[0]);
+      y1 = Math.min(y1, n.box[1]);
+      x1 = Math.min(x1, n.box[2]);
+      x2 = Math.max(x2, n.box[3]);
+      loops.add(null);
+    };
+    // clockwise, with a margin so no edge of the box lies on a line
+    ArrayList<double[]> box = new ArrayList<>();
+    box.add(new double[] { x1-64, y2+64 });
+    box.add(new double[] { x2+64, y2+64 });
+    box.add(new double[] { x2+64, y1-64 });
+    box.add(new double[] { x1-64, y1-64 });
+    walk(bsp.root, box);
+    split();
+
+    for(int i = 0; i<loops.size(); i++) {
+      first[i] = segs.size();
+      count[i] = loops.get(i).size();
+      segs.addAll(loops.get(i));
+    };
+    // a seg along a line can have a miniseg doubling back on it where
+    // a sliver of a subsector was cut off the other side: so minisegs
+    // are paired with minisegs, and segs of lines with those, first
+    ArrayList<HashMap<Long, Integer>> byends = new ArrayList<>();
+    byends.add(new HashMap<>());
+    byends.add(new HashMap<>());
+    for(int i = 0; i<segs.size(); i++) {
+      int s[] = segs.get(i);
+      HashMap<Long, Integer> m = byends.get(s[2]==NOLINE ? 1 : 0);
+      long k = Bsp.key(s[0], s[1]);
+      m.put(k, m.containsKey(k) ? -1 : i);
+    };
+    for(int i = 0; i<segs.size(); i++) {
+      int s[] = segs.get(i);
+      if(s[4]<0) s[4] = partner(byends, i);
+    };
+    for(int s[] : segs) if(s[2]==NOLINE && s[4]<0 && behind(s)>=0) unpaired++;
+  }
+
+  // the subsector just behind a seg, or -1 if that's outside them all
+  // or it's on the far side of a wall (as where the map has segs of a
+  // polyobject out in the void)
+  int behind(int s[]) {
+    double a[] = at.get(s[0]), b[] = at.get(s[1]);
+    double dx = b[0]-a[0], dy = b[1]-a[1], len = Math.hypot(dx, dy);
+    int k = find((a[0]+b[0])/2-dy/len*ONLINE, (a[1]+b[1])/2+dx/len*ONLINE);
+    if(k<0) return -1;
+    for(int t[] : loops.get(k)) {
+      double c[] = at.get(t[0]), d[] = at.get(t[1]);
+      double ex = d[0]-c[0], ey = d[1]-c[1], l = Math.hypot(ex, ey);
+      if(t[2]!=NOLINE && ex*dx+ey*dy<0 && Math.abs(ey*(a[0]-c[0])-ex*(a[1]-c[1]))/l<=ONLINE
+                                      && Math.abs(ey*(b[0]-c[0])-ex*(b[1]-c[1]))/l<=ONLINE) return -1;
+    };
+    return k;
+  }
+
+  // the subsector (x,y) is in, or -1 if it's outside them all
+  int find(double x, double y) {
+    BspNode n = bsp.root;
+    while(n.segs==null) n = n.dy*(x-n.x)-n.dx*(y-n.y)>=0 ? n.front : n.back;
+    for(int s[] : loops.get(n.idx)) {
+      double a[] = at.get(s[0]), b[] = at.get(s[1]);
+      if((b[1]-a[1])*(x-a[0])-(b[0]-a[0])*(y-a[1])<0) return -1;
+    };
+    return n.idx;
+  }
+
+  // the seg going the other way between the same two vertices, or -1
+  int partner(ArrayList<HashMap<Long, Integer>> byends, int i) {
+    int s[] = segs.get(i), kind = s[2]==NOLINE ? 1 : 0;
+    // two segs the same way round between the same vertices have no partner
+    if(byends.get(kind).get(Bsp.key(s[0], s[1]))!=i) return -1;
+    for(int j = 0; j<2; j++) {
+      Integer p = byends.get(kind^j).get(Bsp.key(s[1], s[0]));
+      if(p==null || p<0) continue;
+      int t[] = segs.get(p);
+      if(t[4]>=0) continue;
+      t[4] = i;
+      return p;
+    };
+    return -1;
+  }
+
+  // a seg, and the vertices its ends are at
+  static class Piece {
+    BspSeg seg;
+    double x1, y1, x2, y2;
+    int v1, v2;
+  }
+
+  Piece piece(BspSeg s) {
+    Piece c = new Piece();
+    c.seg = s;
+    c.x1 = s.ex1; c.y1 = s.ey1; c.x2 = s.ex2; c.y2 = s.ey2;
+    c.v1 = vertex(c.x1, c.y1);
+    c.v2 = vertex(c.x2, c.y2);
+    return c;
+  }
+
+  void walk(BspNode n, ArrayList<double[]> area) {
+    if(n.segs!=null) {
+      leaf(n, area);
+      return;
+    };
+    walk(n.front, clip(area, n.x, n.y, n.dx, n.dy));
+    walk(n.back, clip(area, n.x, n.y, -n.dx, -n.dy));
+  }
+
+  // the part of a clockwise polygon on the front (right) of a line
+  static ArrayList<double[]> clip(ArrayList<double[]> poly, double x, double y, double dx, double dy) {
+    ArrayList<double[]> r = new ArrayList<>();
+    double len = Math.hypot(dx, dy);
+    for(int i = 0; i<poly.size(); i++) {
+      double a[] = poly.get(i), b[] = poly.get((i+1)%poly.size());
+      double da = (dy*(a[0]-x)-dx*(a[1]-y))/len;
+      double db = (dy*(b[0]-x)-dx*(b[1]-y))/len;
+      if(da>=0) r.add(a);
+      if((da>0 && db<0) || (da<0 && db>0)) {
+        double t = da/(da-db);
+        r.add(new double[] { a[0]+t*(b[0]-a[0]), a[1]+t*(b[1]-a[1]) });
+      };
+    };
+    return r;
+  }
+
+  // the corners of a clipped area, leaving out points that are on an edge
+  // or (give or take rounding) the same as the one before
+  static ArrayList<double[]> corners(ArrayList<double[]> area) {
+    ArrayList<double[]> points = new ArrayList<>();
+    for(double p[] : area) {
+      double q[] = points.isEmpty() ? null : points.get(points.size()-1);
+      if(q==null || Math.hypot(p[0]-q[0], p[1]-q[1])>=1e-6) points.add(p);
+    };
+    while(points.size()>1 && Math.hypot(points.get(0)[0]-points.get(points.size()-1)[0],
+                                        points.get(0)[1]-points.get(points.size()-1)[1])<1e-6) {
+      points.remove(points.size()-1);
+    };
+    ArrayList<double[]> corners = new ArrayList<>();
+    for(int i = 0; points.size()>=3 && i<points.size(); i++) {
+      double a[] = points.get((i+points.size()-1)%points.size()), p[] = points.get(i);
+      double b[] = points.get((i+1)%points.size());
+      double in = Math.atan2(p[1]-a[1], p[0]-a[0]), out = Math.atan2(b[1]-p[1], b[0]-p[0]);
+      if(sweep(in, out)!=0) corners.add(p);
+    };
+    return corners.size()>=3 ? corners : new ArrayList<>();
+  }
+
+  /*
+   * going clockwise round the area, each seg goes on the edge whose line
+   * is nearest its own, in the order they come along it. a corner of the
+   * area is only needed where no seg ends close to it.
+   */
+  void leaf(BspNode n, ArrayList<double[]> area) {
+    ArrayList<Piece> pieces = new ArrayList<>();
+    for(BspSeg s : n.segs) pieces.add(piece(s));
+    for(Piece c : pieces) area = clip(area, c.seg.lx, c.seg.ly, c.seg.ldx, c.seg.ldy);
+    ArrayList<double[]> corners = corners(area);
+    HashMap<Piece, Integer> edge = new HashMap<>();
+    for(Piece c : pieces) edge.put(c, edge(corners, c));
+    ArrayList<Piece> round = new ArrayList<>(pieces);
+    round.sort(Comparator.comparingInt((Piece s) -> edge.get(s))
+                         .thenComparingDouble(s -> corners.isEmpty() ? -direction(s) : 0)
+                         .thenComparingDouble(s -> along(s, s.x1, s.y1)));
+
+    // the segs and the corners (as null) in the order they come round
+    ArrayList<Piece> stops = new ArrayList<>();
+    ArrayList<double[]> where = new ArrayList<>();
+    int j = 0;
+    for(; j<round.size() && edge.get(round.get(j))<0; j++) {
+      stops.add(round.get(j));
+      where.add(null);
+    };
+    for(int i = 0; i<corners.size(); i++) {
+      stops.add(null);
+      where.add(corners.get(i));
+      for(; j<round.size() && edge.get(round.get(j))==i; j++) {
+        stops.add(round.get(j));
+        where.add(null);
+      };
+    };
+    int k = stops.size();
+    while(k>0 && stops.get(k%stops.size())==null) k--;  // start at a seg
+
+    ArrayList<int[]> loop = new ArrayList<>();
+    Piece s = stops.get(k%stops.size());
+    loop.add(new int[] { s.v1, s.v2, s.seg.line, s.seg.side, -1 });
+    int v = s.v2;
+    double x = s.x2, y = s.y2;
+    for(int i = 1; i<stops.size(); i++) {
+      int next = (k+i)%stops.size();
+      Piece t = stops.get(next);
+      if(t!=null) {
+        v = miniseg(loop, v, x, y, t.v1, t.x1, t.y1);
+        loop.add(new int[] { t.v1, t.v2, t.seg.line, t.seg.side, -1 });
+        v = t.v2;
+        x = t.x2;
+        y = t.y2;
+        continue;
+      };
+      double c[] = where.get(next);
+      Piece u = stops.get((next+1)%stops.size());
+      if(Math.hypot(c[0]-x, c[1]-y)<=EPSILON) continue;
+      if(u!=null && Math.hypot(c[0]-u.x1, c[1]-u.y1)<=EPSILON) continue;
+      int w = vertex(c[0], c[1]);
+      double p[] = at.get(w);
+      v = miniseg(loop, v, x, y, w, p[0], p[1]);
+      x = p[0];
+      y = p[1];
+    };
+    miniseg(loop, v, x, y, s.v1, s.x1, s.y1);
+
+    // ends of segs rounded to 16.16 can be a little outside the area,
+    // with the minisegs to them doubling back: cut those corners off,
+    // and drop minisegs that go back the way they came
+    for(int i = 0; i<loop.size() && loop.size()>2; ) {
+      int a[] = loop.get(i), nx = (i+1)%loop.size(), b[] = loop.get(nx);
+      if(a[2]!=NOLINE || b[2]!=NOLINE || convex(a[0], a[1], b[1])) {
+        i++;
+        continue;
+      };
+      if(a[0]==b[1]) {
+        loop.remove(Math.max(i, nx));
+        loop.remove(Math.min(i, nx));
+      } else {
+        loop.set(i, new int[] { a[0], b[1], NOLINE, 0, -1 });
+        loop.remove(nx);
+      };
+      i = Math.max(0, Math.min(i, nx)-1);
+    };
+    loops.set(n.idx, loop);
+  }
+
+  // going from u through v to w turns clockwise, or goes straight on
+  boolean convex(int u, int v, int w) {
+    double a[] = at.get(u), b[] = at.get(v), c[] = at.get(w);
+    double dx1 = b[0]-a[0], dy1 = b[1]-a[1], dx2 = c[0]-b[0], dy2 = c[1]-b[1];
+    double sin = (dx1*dy2-dy1*dx2)/Math.hypot(dx1, dy1)/Math.hypot(dx2, dy2);
+    return sin<-ANGLE || (sin<=ANGLE && dx1*dx2+dy1*dy2>0);
+  }
+
+  // close the gap from vertex v to w, if there is one
+  int miniseg(ArrayList<int[]> loop, int v, double vx, double vy, int w, double wx, double wy) {
+    if(v==w) return w;
+    at.putIfAbsent(v, new double[] { vx, vy });
+    at.putIfAbsent(w, new double[] { wx, wy });
+    loop.add(new int[] { v, w, NOLINE, 0, -1 });
+    return w;
+  }
+
+  // the edge of the area a seg runs along: the one going its way that
+  // its ends are nearest, or -1 if the area has no edges
+  static int edge(ArrayList<double[]> corners, Piece c) {
+    BspSeg s = c.seg;
+    int best = -1;
+    double bestd = Double.MAX_VALUE;
+    for(int i = 0; i<corners.size(); i++) {
+      double a[] = corners.get(i), b[] = corners.get((i+1)%corners.size());
+      double dx = b[0]-a[0], dy = b[1]-a[1], len = Math.hypot(dx, dy);
+      if(dx*s.ldx+dy*s.ldy<=0) continue;
+      double d = Math.abs(dy*(c.x1-a[0])-dx*(c.y1-a[1]))/len
+               + Math.abs(dy*(c.x2-a[0])-dx*(c.y2-a[1]))/len;
+      if(d<bestd) {
+        best = i;
+        bestd = d;
+      };
+    };
+    return best;
+  }
+
+  // how far along its line a point is, the same for every line going the same way
+  static double along(Piece c, double x, double y) {
+    double len = Math.hypot(c.seg.ldx, c.seg.ldy);
+    return (x*c.seg.ldx+y*c.seg.ldy)/len;
+  }
+
+  /*
+   * split each miniseg wherever the end of another lies along it, so
+   * the minisegs on the two sides of a partition meet at the same
+   * vertices and can be partners
+   */
+  void split() {
+    Integer ends[] = at.keySet().toArray(new Integer[0]);
+    Arrays.sort(ends, Comparator.comparingDouble(e -> at.get(e)[0]));
+    double xs[] = new double[ends.length];
+    for(int i = 0; i<ends.length; i++) xs[i] = at.get(ends[i])[0];
+    for(ArrayList<int[]> loop : loops) {
+      for(int i = 0; i<loop.size(); i++) {
+        int m[] = loop.get(i);
+        if(m[2]!=NOLINE) continue;
+        double a[] = at.get(m[0]), b[] = at.get(m[1]);
+        double dx = b[0]-a[0], dy = b[1]-a[1], len = Math.hypot(dx, dy);
+        int best = -1;
+        double bestt = len;
+        int lo = Arrays.binarySearch(xs, Math.min(a[0], b[0])-ONLINE);
+        for(int e = lo<0 ? -lo-1 : lo; e<ends.length && xs[e]<=Math.max(a[0], b[0])+ONLINE; e++) {
+          double p[] = at.get(ends[e]);
+          double t = (dx*(p[0]-a[0])+dy*(p[1]-a[1]))/len;
+          if(t<=ONLINE || t>=len-ONLINE || t>=bestt) continue;
+          if(Math.abs(dy*(p[0]-a[0])-dx*(p[1]-a[1]))/len>ONLINE) continue;
+          best = ends[e];
+          bestt = t;
+        };
+        // the nearest one first: the rest get split off what's left
+        if(bestt<len) {
+          loop.set(i, new int[] { m[0], best, NOLINE, 0, -1 });
+          loop.add(i+1, new int[] { best, m[1], NOLINE, 0, -1 });
+        };
+      };
+      // in an area too thin to tell its sides apart, that can make
+      // a miniseg out to a point and one straight back: drop those
+      for(int i = 0; i<loop.size() && loop.size()>2; ) {
+        int a[] = loop.get(i), nx = (i+1)%loop.size(), b[] = loop.get(nx);
+        if(a[2]!=NOLINE || b[2]!=NOLINE || a[0]!=b[1]) {
+          i++;
+          continue;
+        };
+        loop.remove(Math.max(i, nx));
+        loop.remove(Math.min(i, nx));
+        i = Math.max(0, Math.min(i, nx)-1);
+      };
+    };
+  }
+
+  // the same for every line going the same way, however long
+  static double direction(Piece c) {
+    BspSeg s = c.seg;
+    int g = gcd(Math.abs(s.ldx), Math.abs(s.ldy));
+    return g==0 ? 0 : Math.atan2(s.ldy/g, s.ldx/g);
+  }
+
+  static int gcd(int a, int b) { return b==0 ? a : gcd(b, a%b); }
+
+  // how far clockwise it is from angle a to angle b, in 0..2pi, with
+  // directions that are as good as the same counting as no turn at all
+  static double sweep(double a, double b) {
+    double d = a-b;
+    while(d<0) d += 2*Math.PI;
+    while(d>=2*Math.PI) d -= 2*Math.PI;
+    return d<ANGLE || d>2*Math.PI-ANGLE ? 0 : d;
+  }
+
+  int vertex(double x, double y) {
+    // the same point worked out two ways can round differently, so one
+    // already made within ONLINE of it is used instead
+    long cx = Math.round(x/ONLINE), cy = Math.round(y/ONLINE);
+    for(long i = cx-1; i<=cx+1; i++) {
+      for(long j = cy-1; j<=cy+1; j++) {
+        ArrayList<Integer> near = grid.get(Bsp.key((int)i, (int)j));
+        if(near==null) continue;
+        for(int v : near) {
+          double p[] = at.get(v);
+          if(Math.hypot(p[0]-x, p[1]-y)<=ONLINE) return v;
+        };
+      };
+    };
+    int fx = (int)Math.round(x*65536), fy = (int)Math.round(y*65536);
+    Integer i = null;
+    if((fx & 0xffff)==0 && (fy & 0xffff)==0) i = bsp.vertexidx.get(Bsp.key(fx>>16, fy>>16));
+    if(i==null) {
+      i = glvertices.size() | GLVERTEX;
+      glvertices.add(new int[] { fx, fy });
+    };
+    at.put(i, new double[] { fx/65536.0, fy/65536.0 });
+    grid.computeIfAbsent(Bsp.key((int)cx, (int)cy), k -> new ArrayList<>()).add(i);
+    return i;
+  }
+
+  // how a GL or ZDoom node refers to a child
+  static int child(BspNode n) { return n.segs!=null ? n.idx|SUBSECTOR : n.idx; }
+}
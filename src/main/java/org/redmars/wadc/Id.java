@@ -12,26 +12,79 @@ import java.util.*;
 class Id extends Exp {
   String s;
   Vector v = null;
+  int slot = -1;      // which argument of the enclosing function this names, if any
+  Exp argv[] = null;
+  Fun fun = null;     // what this calls, once linked
   Id(String t) { s = t; }
+  Exp[] argv() {
+    if(argv==null) argv = v==null ? Frame.NOEXP : (Exp[])v.toArray(new Exp[v.size()]);
+    return argv;
+  }
+  int argslot() { return slot; }
+  Fun fun(WadRun wr) { return fun!=null ? fun : (Fun)wr.wp.funs.get(s); }
   String sval() { return s; }
-  Exp eval(WadRun wr) { return wr.call(this); };
-  Exp replace(Vector n, Vector r) {
-    if(v==null) {
-      for(int i = 0;i<n.size();i++) {
-        if(((String)n.elementAt(i)).compareTo(s)==0) return (Exp)r.elementAt(i);
-      };
-      return this;
+  Exp eval(WadRun wr, Frame env) {
+    if(slot>=0) return env.arg(wr,slot);
+    return wr.call(this,env);
+  };
+  Exp tail(WadRun wr, Frame env) {
+    if(slot>=0 || fun==null || fun.builtin!=null) return eval(wr,env);
+    wr.tailsite = this;
+    wr.tailenv = env;
+    return WadRun.TAILCALL;
+  }
+  int nargs() { return v==null ? 0 : v.size(); }
+  boolean pure(WadRun wr, Frame env) {
+    if(slot>=0) return env==null || env.argpure(wr,slot);
+    Fun f = fun(wr);
+    if(f==null || f.nargs()!=nargs()) return false;
+    if(!(f.builtin!=null ? f.builtin.pure : f.pure)) return false;
+    for(int i = 0;i<nargs();i++) if(!((Exp)v.elementAt(i)).pure(wr,env)) return false;
+    return true;
+  }
+  BitSet strict(WadRun wr) {
+    BitSet r = new BitSet();
+    if(slot>=0) {
+      r.set(slot);
+      return r;
     };
+    Fun f = fun(wr);
+    if(f==null || f.nargs()!=nargs()) return r;
+    for(int i = 0;i<nargs();i++) {
+      // builtins evaluate all their arguments (bar the lazy ones'
+      // loop bodies), functions the strict ones
+      if(f.builtin!=null ? f.builtin.strict(i) : f.strict[i] || f.eager(i)) r.or(((Exp)v.elementAt(i)).strict(wr));
+    };
+    return r;
+  }
+  boolean haschoice() {
+    if(v!=null) for(int i = 0;i<v.size();i++) if(((Exp)v.elementAt(i)).haschoice()) return true;
+    return false;
+  }
+  void draw(int picks[]) {
+    for(int i = 0;i<nargs();i++) ((Exp)v.elementAt(i)).draw(picks);
+  }
+  Exp choose() {
+    if(!haschoice()) return this;
     Id newid = new Id(s);
-    newid.v = replacevector(v,n,r);
+    newid.fun = fun;
+    newid.v = new Vector();
+    for(int i = 0;i<v.size();i++) newid.v.addElement(((Exp)v.elementAt(i)).choose());
     return newid;
   }
-  String show() {
+  String show() { return show(null); }
+  String show(Frame env) {
+    if(slot>=0 && env!=null) {
+      // what the old substitution would have put here; once an
+      // argument's value is known, only that is left to show
+      if(env.exp[slot]!=null) return env.exp[slot].show(env.env[slot]);
+      if(env.val[slot]!=null && env.val[slot]!=Frame.IMPURE) return env.val[slot].show();
+    };
     String t = s;
     if(v!=null) {
       t += "(";
       for(int i = 0;i<v.size();i++) {
-        t += (((Exp)v.elementAt(i)).show())+(i<v.size()-1?",":"");
+        t += (((Exp)v.elementAt(i)).show(env))+(i<v.size()-1?",":"");
       };
       t += ")";
     };
@@ -12,15 +12,38 @@ import java.util.*;
 class If extends Exp {
   Exp bool,then,els;
   If(Exp b) { bool = b; }
-  Exp eval(WadRun wr) {
-    return bool.eval(wr).ival()!=0?then.eval(wr):els.eval(wr);
+  Exp eval(WadRun wr, Frame env) {
+    return bool.eval(wr,env).ival()!=0?then.eval(wr,env):els.eval(wr,env);
   }
-  Exp replace(Vector n, Vector r) {
-    If i = new If(bool.replace(n,r));
-    i.then = then.replace(n,r);
-    i.els = els.replace(n,r);
+  Exp tail(WadRun wr, Frame env) {
+    return bool.eval(wr,env).ival()!=0?then.tail(wr,env):els.tail(wr,env);
+  }
+  boolean pure(WadRun wr, Frame env) {
+    return bool.pure(wr,env) && then.pure(wr,env) && els.pure(wr,env);
+  }
+  BitSet strict(WadRun wr) {
+    BitSet s = then.strict(wr);
+    s.and(els.strict(wr));
+    s.or(bool.strict(wr));
+    return s;
+  }
+  boolean haschoice() { return bool.haschoice() || then.haschoice() || els.haschoice(); }
+  void draw(int picks[]) {
+    bool.draw(picks);
+    then.draw(picks);
+    els.draw(picks);
+  }
+  Exp choose() {
+    Exp b = bool.choose();
+    Exp t = then.choose();
+    Exp e = els.choose();
+    if(b==bool && t==then && e==els) return this;
+    If i = new If(b);
+    i.then = t;
+    i.els = e;
     return i;
   }
-  String show() { return bool.show()+" ? "+then.show()+" : "+els.show(); };
+  String show() { return show(null); };
+  String show(Frame env) { return bool.show(env)+" ? "+then.show(env)+" : "+els.show(env); };
 }
 
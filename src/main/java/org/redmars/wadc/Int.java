@@ -8,11 +8,37 @@
 
 package org.redmars.wadc;
 
+/*
+ * Ints never change, so the small ones (coordinates, counters, flags)
+ * are made once and shared: get them with Int.of. the cache covers
+ * -n..n, where n is the system property wadc.intcache (default 4096,
+ * at most 1048576; 0 or less turns the cache off). made and shared
+ * count the Ints handed out each way.
+ */
+
 class Int extends Exp {
+  static final int max = Math.max(0, Math.min(1<<20, Integer.getInteger("wadc.intcache", 4096)));
+  static final Int cache[] = new Int[max>0 ? 2*max+1 : 0];
+  static long made = 0, shared = 0;
+  static {
+    if(max>0) for(int x = -max; x<=max; x++) cache[x+max] = new Int(x);
+  }
+
   int i;
-  Int(int x) { i = x; }
+  private Int(int x) { i = x; }
+
+  static Int of(int x) {
+    if(max>0 && x>=-max && x<=max) {
+      shared++;
+      return cache[x+max];
+    };
+    made++;
+    return new Int(x);
+  }
+
   int ival() { return i; }
   String sval() { return ""+i; }
+  boolean pure(WadRun wr, Frame env) { return true; }
   String show() { return sval(); };
 }
 
@@ -13,15 +13,18 @@ public class Line {
   int idx;
   Vertex from, to;
   Side right = null, left = null;
-  String t,m,b;
+  int t,m,b;      // textures, see WadRun.texid
   int xoff, yoff;
   boolean undefx, undefy;
   int flags = 0;
   int type = 0;
   int tag = 0;
-  int specialargs[] = new int[4];
+  static final int NOARGS[] = new int[4];
+  int specialargs[] = NOARGS;   // shared and never written to, see makeline_really
   boolean midtex = false;
-  Line() { for(int i = 0; i < specialargs.length; i++) specialargs[i] = 0; }
+  int rowseq;   // order added to its LineIndex row
+  int gridmark; // last LineGrid lookup that returned this line
+  Line() { }
   Line(boolean mt) { this(); midtex = mt; }
   void copyattrs(Line l, Vector sidesv) {
     if(l.right!=null) right = l.right.cloneadd(this,sidesv);
@@ -36,7 +39,7 @@ public class Line {
     undefy = l.undefy;
     type = l.type;
     tag = l.tag;
-    for(int i = 0; i < specialargs.length; i++) specialargs[i] = l.specialargs[i];
+    specialargs = l.specialargs;
   };
   int width() {
     int xs = Math.abs(from.x-to.x);
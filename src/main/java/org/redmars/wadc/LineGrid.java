@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * a uniform grid over all lines, used by intersectlines mode to find
+ * the lines a new line might touch without looking at every line.
+ * a line is filed under every cell its segment passes through.
+ * lines that get shorter (splitatvertex) stay filed under their old
+ * cells, so lookups return a superset that callers test exactly.
+ */
+
+class LineGrid {
+  static final int CELL = 256;
+  HashMap<Long, ArrayList<Line>> cells = new HashMap<>();
+  ArrayList<Line> found = new ArrayList<>();
+  int mark = 0;
+
+  static long key(int cx, int cy) { return ((long)cx<<32) | (cy&0xFFFFFFFFL); }
+
+  void add(Line l) {
+    cover(l.from, l.to, l);
+  }
+
+  // every line filed in a cell the segment a-b passes through
+  ArrayList<Line> near(Vertex a, Vertex b) {
+    found.clear();
+    mark++;
+    cover(a, b, null);
+    return found;
+  }
+
+  // walk the cells under a-b one column at a time; add l to them, or
+  // when l is null collect what is already there
+  void cover(Vertex a, Vertex b, Line l) {
+    if(a.x>b.x) { Vertex t = a; a = b; b = t; };
+    long dx = b.x-a.x;
+    long dy = b.y-a.y;
+    int cx1 = Math.floorDiv(a.x, CELL);
+    int cx2 = Math.floorDiv(b.x, CELL);
+    for(int cx = cx1; cx<=cx2; cx++) {
+      int ylo, yhi;
+      if(dx==0) {
+        ylo = Math.min(a.y, b.y);
+        yhi = Math.max(a.y, b.y);
+      } else {
+        long x1 = Math.max(a.x, (long)cx*CELL);
+        long x2 = Math.min(b.x, (long)cx*CELL+CELL);
+        long y1 = a.y + Math.floorDiv((x1-a.x)*dy, dx);
+        long y2 = a.y + Math.floorDiv((x2-a.x)*dy, dx);
+        ylo = (int)Math.min(y1, y2);
+        yhi = (int)Math.max(y1, y2)+1;
+      };
+      int cy2 = Math.floorDiv(yhi, CELL);
+      for(int cy = Math.floorDiv(ylo, CELL); cy<=cy2; cy++) {
+        if(l!=null) {
+          ArrayList<Line> c = cells.get(key(cx,cy));
+          if(c==null) cells.put(key(cx,cy), c = new ArrayList<>());
+          c.add(l);
+        } else {
+          ArrayList<Line> c = cells.get(key(cx,cy));
+          if(c!=null) for(Line m : c) {
+            if(m.gridmark==mark) continue;
+            m.gridmark = mark;
+            found.add(m);
+          };
+        };
+      };
+    };
+  }
+}
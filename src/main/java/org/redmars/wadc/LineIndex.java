@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * the axis-aligned lines on each x (or y) coordinate, sorted by where
+ * they start along it. splitlines never lets two lines on the same
+ * coordinate overlap, so the lines overlapping a span are a contiguous
+ * run starting at most one entry before the span does.
+ *
+ * lines also carry the order they were added in (Line.rowseq) so that
+ * overlaps are resolved in the same order the old per-coordinate lists
+ * produced them.
+ *
+ * each row is a pair of sorted arrays rather than a TreeMap, which is
+ * a good deal smaller for the few lines most coordinates have.
+ */
+
+class LineIndex {
+  boolean eqx;      // true: vertical lines keyed on x, sorted by y
+  HashMap<Integer, Row> rows = new HashMap<>();
+  int seq = 0;
+
+  LineIndex(boolean eqx) { this.eqx = eqx; }
+
+  int coord(Line l) { return eqx ? l.from.x : l.from.y; }
+
+  int lo(Line l) {
+    int a = eqx ? l.from.y : l.from.x;
+    int b = eqx ? l.to.y : l.to.x;
+    return a<b ? a : b;
+  }
+
+  int hi(Line l) {
+    int a = eqx ? l.from.y : l.from.x;
+    int b = eqx ? l.to.y : l.to.x;
+    return a>b ? a : b;
+  }
+
+  // add a line as the most recent one on its coordinate
+  void add(Line l) {
+    l.rowseq = seq++;
+    put(l);
+  }
+
+  // (re-)insert a line keeping its place in the order
+  void put(Line l) {
+    Row row = rows.get(coord(l));
+    if(row==null) rows.put(coord(l), row = new Row());
+    row.put(lo(l), l);
+  }
+
+  void remove(Line l) {
+    Row row = rows.get(coord(l));
+    if(row!=null) row.remove(lo(l));
+  }
+
+  // the earliest added line on coord overlapping the open span c1..c2
+  Line firstoverlap(int coord, int c1, int c2) {
+    Row row = rows.get(coord);
+    if(row==null) return null;
+    int i = row.find(c1);
+    if(i<0) i = -i-2;                 // the entry starting before c1, if any
+    if(i<0) i = 0;
+    Line first = null;
+    for(; i<row.n && row.lo[i]<c2; i++) {
+      Line l = row.l[i];
+      if(hi(l)<=c1) continue;
+      if(first==null || l.rowseq<first.rowseq) first = l;
+    }
+    return first;
+  }
+
+  static class Row {
+    int lo[] = new int[2];
+    Line l[] = new Line[2];
+    int n;
+
+    // index of key, or -(insertion point)-1
+    int find(int key) { return Arrays.binarySearch(lo, 0, n, key); }
+
+    void put(int key, Line line) {
+      int i = find(key);
+      if(i>=0) { l[i] = line; return; };
+      i = -i-1;
+      if(n==lo.length) {
+        lo = Arrays.copyOf(lo, 2*n);
+        l = Arrays.copyOf(l, 2*n);
+      };
+      System.arraycopy(lo, i, lo, i+1, n-i);
+      System.arraycopy(l, i, l, i+1, n-i);
+      lo[i] = key;
+      l[i] = line;
+      n++;
+    }
+
+    void remove(int key) {
+      int i = find(key);
+      if(i<0) return;
+      System.arraycopy(lo, i+1, lo, i, n-i-1);
+      System.arraycopy(l, i+1, l, i, n-i-1);
+      l[--n] = null;
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * resolves every call in the functions main can reach to its Fun
+ * (Id.fun) before anything runs, and checks it is given the right
+ * number of arguments. mistakes then stop the run straight away rather
+ * than whenever evaluation gets to them. functions main never reaches
+ * can't run, so their mistakes are left alone as before.
+ */
+
+class Linker {
+  WadRun wr;
+  Fun current;
+  HashSet<Fun> seen = new HashSet<>();
+  ArrayDeque<Fun> todo = new ArrayDeque<>();
+  // builtins whose first argument names a global variable. matched on
+  // the builtin itself, so _loopvar counts and a program's own loopvar
+  // doesn't
+  HashSet<Builtin> vars = new HashSet<>();
+
+  Linker(WadRun w) {
+    wr = w;
+    for(String s : Arrays.asList("set", "get", "_loopvar")) vars.add(((Fun)wr.wp.funs.get(s)).builtin);
+    Fun main = (Fun)wr.wp.funs.get("main");
+    if(main==null || main.builtin!=null) return;
+    reach(main);
+    while(!todo.isEmpty()) {
+      current = todo.pop();
+      exp(current.body);
+    };
+  }
+
+  void reach(Fun f) {
+    if(seen.add(f)) todo.push(f);
+  }
+
+  void exp(Exp e) {
+    if(e instanceof Seq) {
+      exp(((Seq)e).x);
+      exp(((Seq)e).y);
+    } else if(e instanceof If) {
+      exp(((If)e).bool);
+      exp(((If)e).then);
+      exp(((If)e).els);
+    } else if(e instanceof Choice) {
+      for(Object o : ((Choice)e).v) exp((Exp)o);
+    } else if(e instanceof Id) {
+      id((Id)e);
+    } else if(e instanceof SetGet) {
+      ((SetGet)e).slot = wr.wp.globs.slot(((SetGet)e).name);
+    };
+  }
+
+  void id(Id i) {
+    if(i.slot>=0) return;
+    for(int j = 0; j<i.nargs(); j++) exp((Exp)i.v.elementAt(j));
+    Fun f = (Fun)wr.wp.funs.get(i.s);
+    String where = " (in "+current.name+")";
+    if(f==null) wr.wp.error("undefined identifier: "+i.s+where);
+    if(f.nargs()!=i.nargs()) {
+      wr.wp.error("wrong number of arguments for "+(f.builtin!=null ? "builtin: " : "macro: ")+i.s+where);
+    };
+    i.fun = f;
+    if(f.builtin==null) reach(f);
+    if(vars.contains(f.builtin) && i.v.elementAt(0) instanceof Str) wr.gvars.slot((Str)i.v.elementAt(0));
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * an object made by onew: its Shape says which of val holds what field
+ */
+
+class Obj {
+  static final Exp NOVAL[] = new Exp[0];
+
+  Shape shape;
+  Exp val[] = NOVAL;
+
+  Obj(Shape s) { shape = s; }
+
+  Exp get(Str field) {
+    int i = field.find(shape);
+    return i<0 ? null : val[i];
+  }
+
+  void set(Str field, Exp v) {
+    int i = field.find(shape);
+    if(i<0) {
+      shape = shape.add(field.s);
+      i = shape.size-1;
+      if(i>=val.length) val = Arrays.copyOf(val, Math.max(2, 2*val.length));
+    };
+    val[i] = v;
+  }
+}
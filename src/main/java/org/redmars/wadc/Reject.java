@@ -0,0 +1,212 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/*
+ * the REJECT table: a bit for every pair of sectors that can't possibly
+ * see each other, so the engine needn't check sight between them.
+ *
+ * sight can only get from one sector to another through two sided
+ * lines (portals). from each sector we follow chains of portals for as
+ * long as one straight line could pass through all of them: going
+ * through a portal, its left end has to stay on the left of the line
+ * and its right end on the right. a sector no chain reaches is
+ * rejected. sectors not connected at all are never looked at.
+ *
+ * lines in a row between the same two sectors are taken as one portal.
+ * this errs on the side of seeing: heights are ignored (doors and lifts
+ * move them), and a sector that takes too long to work out sees every
+ * sector it is connected to. sectors are worked out in parallel.
+ */
+
+class Reject {
+  static final int BUDGET = 50000;  // portals looked through per sector
+  static final int DEPTH = 24;      // portals in one chain
+  static final int MEMO = 16;       // chains remembered per portal
+
+  int n;
+  ArrayList<ArrayList<int[]>> portals = new ArrayList<>();  // line, lx, ly, rx, ry, to
+  int component[];
+  BitSet sees[];
+
+  Reject(ArrayList<Line> lines, int sectors) {
+    n = sectors;
+    for(int i = 0; i<n; i++) portals.add(new ArrayList<>());
+    component = new int[n];
+    for(int i = 0; i<n; i++) component[i] = i;
+    for(int i = 0; i<lines.size(); i++) {
+      Line l = lines.get(i);
+      if(l.right==null || l.left.s==l.right.s) continue;
+      int f = l.left.s.idx, b = l.right.s.idx;
+      // from front to back the start of the line is on the left
+      add(f, b, i, -l.from.x, l.from.y, -l.to.x, l.to.y);
+      add(b, f, i, -l.to.x, l.to.y, -l.from.x, l.from.y);
+      join(f, b);
+    };
+    for(int i = 0; i<n; i++) component[i] = find(i);
+    sees = new BitSet[n];
+    IntStream.range(0, n).parallel().forEach(i -> sees[i] = from(i));
+  }
+
+  void add(int from, int to, int line, int lx, int ly, int rx, int ry) {
+    for(int p[] : portals.get(from)) {
+      if(p[5]!=to) continue;
+      // carries straight on from this one?
+      if(p[3]==lx && p[4]==ly && collinear(p, rx, ry)) {
+        p[3] = rx;
+        p[4] = ry;
+        return;
+      };
+      if(p[1]==rx && p[2]==ry && collinear(p, lx, ly)) {
+        p[1] = lx;
+        p[2] = ly;
+        return;
+      };
+    };
+    portals.get(from).add(new int[] { line, lx, ly, rx, ry, to });
+  }
+
+  static boolean collinear(int p[], int x, int y) {
+    return (long)(p[3]-p[1])*(y-p[2]) == (long)(p[4]-p[2])*(x-p[1]);
+  }
+
+  int find(int i) {
+    while(component[i]!=i) i = component[i] = component[component[i]];
+    return i;
+  }
+
+  void join(int a, int b) { component[find(a)] = find(b); }
+
+  BitSet from(int s) {
+    BitSet r = new BitSet(n);
+    r.set(s);
+    Search k = new Search();
+    for(int p[] : portals.get(s)) {
+      k.path.add(p);
+      if(!follow(k, lines(k.path, null), r)) {
+        // gave up: everything connected is visible
+        for(int i = 0; i<n; i++) if(component[i]==component[s]) r.set(i);
+        return r;
+      };
+      k.path.remove(k.path.size()-1);
+    };
+    return r;
+  }
+
+  // where we are in following portals from one sector
+  static class Search {
+    ArrayList<int[]> path = new ArrayList<>();
+    int budget = BUDGET;
+    // for each portal, the chains that have already been followed from it
+    HashMap<int[], ArrayList<ArrayList<int[]>>> done = new HashMap<>();
+  }
+
+  // the chain in k.path can be seen through along the lines in can:
+  // mark where it leads, and go on
+  boolean follow(Search k, ArrayList<int[]> can, BitSet r) {
+    ArrayList<int[]> path = k.path;
+    int last[] = path.get(path.size()-1);
+    if(path.size()>DEPTH) return false;
+    r.set(last[5]);
+    // anything these lines could see from here has been seen already
+    ArrayList<ArrayList<int[]>> before = k.done.computeIfAbsent(last, x -> new ArrayList<>());
+    for(ArrayList<int[]> b : before) if(all(can, b)) return true;
+    if(before.size()<MEMO) before.add(new ArrayList<>(path));
+    for(int p[] : portals.get(last[5])) {
+      if(p[0]==last[0] || onpath(path, p[0])) continue;
+      if((k.budget -= path.size())<0) return false;
+      path.add(p);
+      ArrayList<int[]> next = lines(path, can);
+      if(!next.isEmpty() && !follow(k, next, r)) return false;
+      path.remove(path.size()-1);
+    };
+    return true;
+  }
+
+  static boolean onpath(ArrayList<int[]> path, int line) {
+    for(int p[] : path) if(p[0]==line) return true;
+    return false;
+  }
+
+  static boolean all(ArrayList<int[]> can, ArrayList<int[]> path) {
+    for(int c[] : can) if(!fits(c, path)) return false;
+    return true;
+  }
+
+  /*
+   * the lines (x, y, dx, dy) with every portal's left end on or left of
+   * them, and every right end on or right of them. they make a convex
+   * set, which the lines through two of the ends that fit are the
+   * corners of: if there are none, nothing fits. can has those for all
+   * but the last portal in path, so only the new ends need looking at.
+   */
+  static ArrayList<int[]> lines(ArrayList<int[]> path, ArrayList<int[]> can) {
+    ArrayList<int[]> r = new ArrayList<>();
+    int last = path.size()-1;
+    int p[] = path.get(last);
+    if(can!=null) {
+      for(int c[] : can) {
+        if(left(c, p[1], p[2])>=0 && left(c, p[3], p[4])<=0) r.add(c);
+      };
+    };
+    through(r, path, p[1], p[2], p[3], p[4]);
+    for(int i = 0; i<last; i++) {
+      int q[] = path.get(i);
+      through(r, path, p[1], p[2], q[1], q[2]);
+      through(r, path, p[1], p[2], q[3], q[4]);
+      through(r, path, p[3], p[4], q[1], q[2]);
+      through(r, path, p[3], p[4], q[3], q[4]);
+    };
+    return r;
+  }
+
+  // add the line through two ends, either way round, where it fits
+  static void through(ArrayList<int[]> r, ArrayList<int[]> path, int ax, int ay, int bx, int by) {
+    if(ax==bx && ay==by) return;
+    int c[] = { ax, ay, bx-ax, by-ay };
+    if(fits(c, path) && !has(r, c)) r.add(c);
+    int d[] = { ax, ay, ax-bx, ay-by };
+    if(fits(d, path) && !has(r, d)) r.add(d);
+  }
+
+  // ends shared by portals next to each other give the same line twice
+  static boolean has(ArrayList<int[]> r, int c[]) {
+    for(int o[] : r) {
+      if(left(o, c[0], c[1])==0 && left(o, c[0]+c[2], c[1]+c[3])==0
+         && (long)o[2]*c[2]+(long)o[3]*c[3]>0) return true;
+    };
+    return false;
+  }
+
+  static boolean fits(int c[], ArrayList<int[]> path) {
+    for(int p[] : path) {
+      if(left(c, p[1], p[2])<0 || left(c, p[3], p[4])>0) return false;
+    };
+    return true;
+  }
+
+  static long left(int c[], int x, int y) {
+    return (long)c[2]*(y-c[1]) - (long)c[3]*(x-c[0]);
+  }
+
+  // bit i*n+j set where sector i can't see sector j
+  byte[] table() {
+    byte t[] = new byte[(int)(((long)n*n+7)/8)];
+    for(int i = 0; i<n; i++) {
+      for(int j = 0; j<n; j++) {
+        if(sees[i].get(j) || sees[j].get(i)) continue;
+        long bit = (long)i*n+j;
+        t[(int)(bit>>3)] |= 1<<(bit&7);
+      };
+    };
+    return t;
+  }
+}
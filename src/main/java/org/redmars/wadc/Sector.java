@@ -12,11 +12,11 @@ import java.util.*;
 public class Sector {
   int idx;
   int ceil, floor;
-  String ctex, ftex;
+  int ctex, ftex;     // see WadRun.texid
   int light;
   int type, tag;
   int boundlen;
-  Sector(String c, String f, int h, int l, int ll, Vector addto, int type, int tag) {
+  Sector(int c, int f, int h, int l, int ll, Vector addto, int type, int tag) {
     ctex = c; ftex = f;
     ceil = h; floor = l;
     this.type = type;
@@ -26,4 +26,32 @@ public class Sector {
     idx = addto.size();
     addto.addElement(this);
   }
+
+  Key key() { return new Key(ctex,ftex,ceil,floor,light,type,tag); }
+
+  /*
+   * the properties mergesectors compares, usable as a hash key
+   */
+  static class Key {
+    int ceil, floor, light, type, tag;
+    int ctex, ftex;
+    Key(int c, int f, int h, int l, int ll, int type, int tag) {
+      ctex = c; ftex = f;
+      ceil = h; floor = l;
+      light = ll;
+      this.type = type;
+      this.tag = tag;
+    }
+    public boolean equals(Object o) {
+      if(!(o instanceof Key)) return false;
+      Key k = (Key)o;
+      return ceil==k.ceil && floor==k.floor && light==k.light &&
+             type==k.type && tag==k.tag &&
+             ctex==k.ctex && ftex==k.ftex;
+    }
+    public int hashCode() {
+      return Objects.hash(ceil, floor, light, type, tag, ctex, ftex);
+    }
+  }
 }
+
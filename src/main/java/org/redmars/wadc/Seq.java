@@ -12,13 +12,31 @@ import java.util.*;
 class Seq extends Exp {
   Exp x, y;
   Seq(Exp a, Exp b) { x = a; y = b; }
-  Exp eval(WadRun wr) {
-    x.eval(wr);
-    return y.eval(wr);
+  Exp eval(WadRun wr, Frame env) {
+    x.eval(wr,env);
+    return y.eval(wr,env);
   }
-  Exp replace(Vector n, Vector r) {
-    return new Seq(x.replace(n,r),y.replace(n,r));
+  Exp tail(WadRun wr, Frame env) {
+    x.eval(wr,env);
+    return y.tail(wr,env);
   }
-  String show() { return x.show()+" "+y.show(); };
+  boolean pure(WadRun wr, Frame env) { return x.pure(wr,env) && y.pure(wr,env); }
+  BitSet strict(WadRun wr) {
+    BitSet s = x.strict(wr);
+    s.or(y.strict(wr));
+    return s;
+  }
+  boolean haschoice() { return x.haschoice() || y.haschoice(); }
+  void draw(int picks[]) {
+    x.draw(picks);
+    y.draw(picks);
+  }
+  Exp choose() {
+    Exp a = x.choose();
+    Exp b = y.choose();
+    return a==x && b==y ? this : new Seq(a,b);
+  }
+  String show() { return show(null); };
+  String show(Frame env) { return x.show(env)+" "+y.show(env); };
 }
 
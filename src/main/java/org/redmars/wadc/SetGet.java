@@ -11,9 +11,11 @@ package org.redmars.wadc;
 class SetGet extends Exp {
   String name;
   boolean set;
-  static Exp n = new Int(0);
-  Exp eval(WadRun wr) {
-    Variable v = (Variable)wr.wp.globs.get(name);
+  int slot = -1;    // in WadParse.globs, see Slots
+  static Exp n = Int.of(0);
+  Exp eval(WadRun wr, Frame env) {
+    if(slot<0) slot = wr.wp.globs.slot(name);
+    Variable v = (Variable)wr.wp.globs.val[slot];
     if(set) {
       if(v==null) v = new Variable();
       v.x = wr.xp;
@@ -24,7 +26,7 @@ class SetGet extends Exp {
       v.t = wr.textop;
       v.m = wr.texmid;
       v.b = wr.texbot;
-      wr.wp.globs.put(name,v);
+      wr.wp.globs.val[slot] = v;
     } else {
       if(v==null) wr.varerr(name);
       wr.xp = v.x;
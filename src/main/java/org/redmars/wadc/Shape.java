@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * the layout of an object (Obj): which field is stored where. objects
+ * that were given the same fields in the same order share one Shape,
+ * so a list built with cons is many small arrays and a single Shape,
+ * rather than a Hashtable per cell. adding a field moves an object on
+ * to the next Shape, which is made the first time and reused after.
+ */
+
+class Shape {
+  HashMap<String, Integer> index;
+  HashMap<String, Shape> next = new HashMap<>();
+  int size;
+
+  Shape() {
+    index = new HashMap<>();
+    size = 0;
+  }
+
+  Shape(Shape from, String field) {
+    index = new HashMap<>(from.index);
+    index.put(field, from.size);
+    size = from.size+1;
+  }
+
+  // where field lives, or -1
+  int find(String field) {
+    Integer i = index.get(field);
+    return i==null ? -1 : i;
+  }
+
+  Shape add(String field) {
+    Shape s = next.get(field);
+    if(s==null) {
+      s = new Shape(this, field);
+      next.put(field, s);
+    };
+    return s;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * global variables, numbered in the order their names are first seen.
+ * names known before the run (literals, !marks) are given their slot by
+ * the Linker, and a Str remembers the slot of its name once looked up,
+ * so getting and setting a variable is an array access. names worked
+ * out at run time (cat and friends) still go through the table.
+ */
+
+class Slots {
+  HashMap<String, Integer> index = new HashMap<>();
+  Object val[] = new Object[16];
+
+  int slot(String s) {
+    Integer i = index.get(s);
+    if(i==null) {
+      i = index.size();
+      index.put(s,i);
+      if(i==val.length) val = Arrays.copyOf(val, 2*i);
+    };
+    return i;
+  }
+
+  int slot(Exp e) {
+    if(!(e instanceof Str)) return slot(e.sval());
+    Str s = (Str)e;
+    if(s.slot<0) s.slot = slot(s.s);
+    return s.slot;
+  }
+}
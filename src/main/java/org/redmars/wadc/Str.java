@@ -10,8 +10,19 @@ package org.redmars.wadc;
 
 class Str extends Exp {
   String s;
+  int slot = -1;    // of the variable with this name, see Slots
+  Shape shape;      // the last Shape this was looked for in as a field
+  int field;        // and where it was
   Str(String t) { s = t; }
   String sval() { return s; }
+  int find(Shape sh) {
+    if(sh!=shape) {
+      field = sh.find(s);
+      shape = sh;
+    };
+    return field;
+  }
+  boolean pure(WadRun wr, Frame env) { return true; }
   String show() { return "\""+s+"\""; };
 }
 
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * works out, for every user function, whether it is pure (draws
+ * nothing, reads no variables or objects, makes no choices) and which
+ * of its arguments it always evaluates. both are fixpoints over the
+ * whole function table, since functions call each other recursively:
+ * start by assuming everything, and take back what the bodies don't
+ * bear out until nothing changes.
+ *
+ * WadRun.call evaluates a strict argument as soon as the call is made
+ * when the argument itself is pure, which is safe since it would be
+ * evaluated anyway and can't tell when. this is the automatic version
+ * of giving the parameter a _ name.
+ */
+
+class Strictness {
+  WadRun wr;
+  ArrayList<Fun> funs = new ArrayList<>();
+
+  Strictness(WadRun w) {
+    wr = w;
+    for(Object o : wr.wp.funs.values()) {
+      Fun f = (Fun)o;
+      if(f.builtin!=null) continue;
+      f.pure = true;
+      f.strict = new boolean[f.args.size()];
+      Arrays.fill(f.strict, true);
+      funs.add(f);
+    };
+    funs.sort((a,b) -> a.name.compareTo(b.name));
+    for(boolean changed = true; changed; ) {
+      changed = false;
+      for(Fun f : funs) {
+        if(f.pure && (f.choices || !f.body.pure(wr,null))) {
+          f.pure = false;
+          changed = true;
+        };
+        BitSet s = f.body.strict(wr);
+        for(int i = 0; i<f.strict.length; i++) {
+          if(f.strict[i] && !s.get(i)) {
+            f.strict[i] = false;
+            changed = true;
+          };
+        };
+      };
+    };
+  }
+
+  // one line per function with strict arguments, not counting _ ones
+  void report() {
+    int n = 0;
+    for(Fun f : funs) {
+      String s = "";
+      for(int i = 0; i<f.strict.length; i++) {
+        if(!f.strict[i] || f.eager(i)) continue;
+        s += (s.length()>0 ? ", " : "")+f.args.elementAt(i);
+        n++;
+      };
+      if(s.length()>0) wr.wp.mf.msg("strict: "+f.name+"("+s+")"+(f.pure ? " pure" : ""));
+    };
+    wr.wp.mf.msg(n+" strict arguments");
+  }
+}
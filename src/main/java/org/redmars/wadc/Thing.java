@@ -16,6 +16,6 @@ public class Thing {
   int type;
   int opt;
   int special = 0;
-  int specialargs[] = new int[5];
-  Thing() { for(int i = 0; i < specialargs.length; i++) specialargs[i] = 0; }
+  static final int NOARGS[] = new int[5];
+  int specialargs[] = NOARGS;   // shared and never written to, see makething
 }
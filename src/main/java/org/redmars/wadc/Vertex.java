@@ -12,35 +12,61 @@ import java.util.*;
 public class Vertex {
   int idx;
   int x,y;
-  Vector<Line> v = new Vector<>();
+  // incident lines, sorted by the direction they leave this vertex in.
+  // a plain array, as there's one of these for every vertex of the map
+  static final Line NOLINES[] = new Line[0];
+  Line v[] = NOLINES;
+  int n;
+
+  int size() { return n; }
+  Line get(int i) { return v[i]; }
 
   public int hashCode() { return (x*y)>>8; }
 
   void insert(Line l) {
-    int ang = angle(l);
-    for(int i = 0; i < v.size(); i++) {
-      if(ang < angle(v.elementAt(i))) {
-        v.insertElementAt(l,i);
-        return;
-      }
+    Vertex o = l.from==this?l.to:l.from;
+    int dx = o.x-x;
+    int dy = o.y-y;
+    int lo = 0;
+    int hi = n;
+    while(lo<hi) {
+      int mid = (lo+hi)>>>1;
+      if(compare(dx,dy,v[mid])<0) { hi = mid; } else { lo = mid+1; };
     }
-    v.addElement(l);
+    if(n==v.length) v = Arrays.copyOf(v, n==0 ? 2 : 2*n);
+    System.arraycopy(v, lo, v, lo+1, n-lo);
+    v[lo] = l;
+    n++;
   }
 
   void remove(Line l) {
-    v.removeElement(l);
-    /*for(int i = 0;i<v.size();i++) {
-     if(l==((Line)v.elementAt(i))) {
-     v.removeElementAt(i);
-     return;
-     };
-     };  */
-  };
-  int angle(Line l) {
-    Vertex other = l.from==this?l.to:l.from;
-    //return (int)(Math.atan2(other.x/(double)x,other.y/(double)y)/3.14159*180.0);
-    //return (int)(Math.atan2(other.y/(double)other.x,y/(double)x)/3.14159*180.0);
-    return (int)(Math.atan2((double)(other.x-x),(double)(other.y-y))/3.14159*180.0);
+    for(int i = 0; i<n; i++) {
+      if(v[i]!=l) continue;
+      System.arraycopy(v, i+1, v, i, n-i-1);
+      v[--n] = null;
+      return;
+    };
   };
-}
 
+  /*
+   * orders directions the same way as atan2(dx,dy) would, going from
+   * -180 to 180 degrees, but exactly and without any trig: first by
+   * which half of the circle the direction is in, then by the sign of
+   * the cross product.
+   */
+  int compare(int dx, int dy, Line l) {
+    Vertex o = l.from==this?l.to:l.from;
+    int ldx = o.x-x;
+    int ldy = o.y-y;
+    int h = half(dx,dy);
+    int lh = half(ldx,ldy);
+    if(h!=lh) return h-lh;
+    long cross = (long)dy*ldx - (long)dx*ldy;
+    return cross>0 ? -1 : (cross<0 ? 1 : 0);
+  }
+
+  // 0 for -180 < angle <= 0, 1 for 0 < angle <= 180
+  static int half(int dx, int dy) {
+    return (dx>0 || (dx==0 && dy<0)) ? 1 : 0;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+
+/*
+ * a fixed set of vertices bucketed into a grid of roughly two per cell,
+ * for the nearest-neighbour search in landscape. nearest() searches
+ * rings of cells outwards and stops once nothing further out can be
+ * closer.
+ */
+
+class VertexGrid {
+  ArrayList<Vertex> pts;
+  int x0, y0, cell, cols, rows;
+  int start[];    // cell c holds items[start[c]] .. items[start[c+1]-1]
+  int items[];    // indices into pts
+
+  VertexGrid(ArrayList<Vertex> p, int x, int y, int width, int height) {
+    pts = p;
+    x0 = x;
+    y0 = y;
+    cell = (int)Math.sqrt(2.0*width*height/Math.max(pts.size(),1))+1;
+    cols = width/cell+1;
+    rows = height/cell+1;
+    start = new int[cols*rows+1];
+    items = new int[pts.size()];
+    for(Vertex v : pts) start[cellof(v)+1]++;
+    for(int c = 0; c<cols*rows; c++) start[c+1] += start[c];
+    int fill[] = Arrays.copyOf(start, cols*rows);
+    for(int i = 0; i<pts.size(); i++) items[fill[cellof(pts.get(i))]++] = i;
+  }
+
+  int col(int x) { return Math.max(0, Math.min(cols-1, Math.floorDiv(x-x0, cell))); }
+  int row(int y) { return Math.max(0, Math.min(rows-1, Math.floorDiv(y-y0, cell))); }
+  int cellof(Vertex v) { return row(v.y)*cols+col(v.x); }
+
+  /*
+   * fill out[] with the vertices closest to v, nearest first; equally
+   * distant ones in the order they appear in pts. returns how many
+   * were found.
+   */
+  int nearest(Vertex v, Vertex out[]) {
+    int k = out.length;
+    long dist[] = new long[k];
+    int idx[] = new int[k];
+    int n = 0;
+    int cx = col(v.x);
+    int cy = row(v.y);
+    int maxr = Math.max(cols, rows);
+    for(int r = 0; r<=maxr; r++) {
+      for(int y = cy-r; y<=cy+r; y++) {
+        if(y<0 || y>=rows) continue;
+        boolean edge = y==cy-r || y==cy+r;
+        for(int x = cx-r; x<=cx+r; x += (edge || r==0) ? 1 : 2*r) {
+          if(x<0 || x>=cols) continue;
+          int c = y*cols+x;
+          for(int j = start[c]; j<start[c+1]; j++) {
+            int i = items[j];
+            Vertex t = pts.get(i);
+            if(t==v) continue;
+            long dx = t.x-v.x;
+            long dy = t.y-v.y;
+            long d = dx*dx+dy*dy;
+            if(n==k && (d>dist[k-1] || (d==dist[k-1] && i>idx[k-1]))) continue;
+            int p = n<k ? n++ : k-1;
+            while(p>0 && (d<dist[p-1] || (d==dist[p-1] && i<idx[p-1]))) {
+              dist[p] = dist[p-1];
+              idx[p] = idx[p-1];
+              p--;
+            }
+            dist[p] = d;
+            idx[p] = i;
+          }
+        }
+      }
+      // anything in ring r+1 or beyond is at least r cells away
+      long reach = (long)r*cell;
+      if(n==k && dist[k-1]<reach*reach) break;
+    }
+    for(int i = 0; i<n; i++) out[i] = pts.get(idx[i]);
+    return n;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+
+/*
+ * maps (x,y) coordinates to the Vertex at that position.
+ * open addressing with linear probing on a packed long key, so
+ * lookups don't box anything or take any locks.
+ */
+
+class VertexIndex {
+  long keys[];
+  Vertex vals[];
+  int size = 0;
+  int mask;
+
+  VertexIndex() { alloc(1024); }
+
+  void alloc(int cap) {
+    keys = new long[cap];
+    vals = new Vertex[cap];
+    mask = cap-1;
+  }
+
+  static long key(int x, int y) { return ((long)x<<32) | (y&0xFFFFFFFFL); }
+
+  int slot(long k) {
+    k *= 0x9E3779B97F4A7C15L;
+    return (int)(k ^ (k>>>32)) & mask;
+  }
+
+  Vertex get(int x, int y) {
+    long k = key(x,y);
+    for(int i = slot(k); vals[i]!=null; i = (i+1)&mask) {
+      if(keys[i]==k) return vals[i];
+    }
+    return null;
+  }
+
+  // the caller guarantees there is no vertex at v's position yet
+  void put(Vertex v) {
+    if((size+1)*2 > vals.length) grow();
+    insert(key(v.x,v.y), v);
+    size++;
+  }
+
+  void insert(long k, Vertex v) {
+    int i = slot(k);
+    while(vals[i]!=null) i = (i+1)&mask;
+    keys[i] = k;
+    vals[i] = v;
+  }
+
+  void grow() {
+    long oldkeys[] = keys;
+    Vertex oldvals[] = vals;
+    alloc(vals.length*2);
+    for(int i = 0; i<oldvals.length; i++) {
+      if(oldvals[i]!=null) insert(oldkeys[i], oldvals[i]);
+    }
+  }
+}
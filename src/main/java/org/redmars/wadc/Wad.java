@@ -9,19 +9,33 @@
 package org.redmars.wadc;
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
 
 public class Wad {
   WadParse wp;
   WadRun wr;
   WadCMainFrame mf;
-  RandomAccessFile f;
-  int curlumppos = 12;
+  ByteBuffer b;     // the lump being written
+  ArrayList<String> lumpnames = new ArrayList<>();
+  ArrayList<ByteBuffer> lumps = new ArrayList<>();
   boolean linewarn = true;
   Hashtable<String, Integer> pnames= new Hashtable<String, Integer>();
   boolean write_pnames = false;
   boolean write_source = true;
+  boolean nodes = false;    // build NODES, SEGS and SSECTORS ourselves
+  boolean reject = false;   // and work out REJECT rather than leave it empty
+  boolean glnodes = false;  // add GL nodes for GL ports
+  boolean znodes = false;   // write ZDoom's compressed nodes instead of doom's
+  boolean keepnodes = false;  // keep the nodes to build the next save from
+  ArrayList<Line> written = new ArrayList<>();
+  Bsp bsp = null;
   String filename;
 
   Wad(WadParse w, WadCMainFrame m, String fn, boolean write_wadsrc) {
@@ -41,43 +55,80 @@ public class Wad {
         findNewPatches();
       }
 
-      int numentries = wr.hexen ? 7 : 6;
-      if(!wp.textures.isEmpty()) numentries++;
-      if(write_pnames) numentries++;
-      if(write_source) numentries++;
-
-      f = new RandomAccessFile(filename,"rw");
-      f.setLength(0);
-      f.writeBytes("PWAD");
-      writeInt(numentries);
-      writeInt(12); // dir offset
-      int tsize = writethings();
-      int lsize = writelines();
-      int dsize = writesides();
-      int vsize = writevertices();
-      int ssize = writesectors();
-      int bsize = writebehaviour();
-      int texsize = writetextures();
-      int psize = writepnames();
-      int wlsize = 0;
-      if(write_source) wlsize = writewadcsource();
-
-      long dpos = f.getFilePointer();
-
-      writedir(wr.mapname,0);
-      writedir("THINGS",tsize);
-      writedir("LINEDEFS",lsize);
-      writedir("SIDEDEFS",dsize);
-      writedir("VERTEXES",vsize);
-      writedir("SECTORS",ssize);
-      if(wr.hexen) writedir("BEHAVIOR", bsize);
-      if(!wp.textures.isEmpty()) writedir("TEXTURE2", texsize);
-      if(write_pnames) writedir("PNAMES", psize);
-      if(write_source) writedir("WADCSRC", wlsize);
-
-      f.seek(8);
-      writeInt((int)dpos);
-      f.close();
+      ByteBuffer things = writethings();
+      ByteBuffer linedefs = writelines();
+      ByteBuffer sidedefs = writesides();
+      if(nodes) {
+        long start = System.nanoTime();
+        bsp = new Bsp(written, wr.vertices, keepnodes ? mf.prefs.basename : null);
+        mf.msg("built "+bsp.nodes.size()+" nodes, "+bsp.leaves.size()+" subsectors, "+
+               bsp.segs.size()+" segs in "+(System.nanoTime()-start)/1000000+"ms"+
+               (bsp.reused>0 ? " ("+bsp.reused+" kept from the last save)" : ""));
+      };
+
+      lump(wr.mapname, ByteBuffer.allocate(0));
+      lump("THINGS", things);
+      lump("LINEDEFS", linedefs);
+      lump("SIDEDEFS", sidedefs);
+      lump("VERTEXES", writevertices());
+      if(bsp!=null && znodes) {
+        // all in NODES: the others have to be there, but empty
+        lump("SEGS", ByteBuffer.allocate(0));
+        lump("SSECTORS", ByteBuffer.allocate(0));
+        lump("NODES", writeznodes());
+      } else if(bsp!=null) {
+        // the engine finds these by their position after the map name
+        lump("SEGS", writesegs());
+        lump("SSECTORS", writessectors());
+        lump("NODES", writenodes());
+      };
+      lump("SECTORS", writesectors());
+      if(bsp!=null) {
+        lump("REJECT", writereject());
+        lump("BLOCKMAP", writeblockmap());
+      };
+      if(wr.hexen) lump("BEHAVIOR", writebehaviour());
+      if(bsp!=null && glnodes) {
+        GlNodes gl = new GlNodes(bsp);
+        if(gl.unpaired>0) mf.msg("warning: "+gl.unpaired+" minisegs have a subsector behind them, but no partner in it");
+        lump("GL_"+wr.mapname, ByteBuffer.allocate(0));
+        lump("GL_VERT", writeglvertices(gl));
+        lump("GL_SEGS", writeglsegs(gl));
+        lump("GL_SSECT", writeglssectors(gl));
+        lump("GL_NODES", writeglnodes());
+      };
+      if(!wp.textures.isEmpty()) lump("TEXTURE2", writetextures());
+      if(write_pnames) lump("PNAMES", writepnames());
+      if(write_source) lump("WADCSRC", writewadcsource());
+
+      // header, lumps and directory go out in one gathering write
+      begin(12);
+      b.put("PWAD".getBytes(StandardCharsets.US_ASCII));
+      writeInt(lumps.size());
+      int pos = 12;
+      for(ByteBuffer l : lumps) pos += l.remaining();
+      writeInt(pos); // dir offset
+      ByteBuffer header = end();
+
+      begin(16*lumps.size());
+      pos = 12;
+      for(int i = 0; i<lumps.size(); i++) {
+        writeInt(pos);
+        writeInt(lumps.get(i).remaining());
+        pos += lumps.get(i).remaining();
+        string(lumpnames.get(i));
+      };
+      ByteBuffer dir = end();
+
+      ByteBuffer all[] = new ByteBuffer[lumps.size()+2];
+      all[0] = header;
+      for(int i = 0; i<lumps.size(); i++) all[i+1] = lumps.get(i);
+      all[all.length-1] = dir;
+      try(FileChannel ch = FileChannel.open(Paths.get(filename),
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+        while(all[all.length-1].hasRemaining()) ch.write(all);
+      };
       mf.msg("wrote wad successfully");
 
     } catch(IOException i) {
@@ -85,45 +136,239 @@ public class Wad {
     };
   }
 
-  void writedir(String name, int size) throws IOException {
-    writeInt(curlumppos);
-    writeInt(size);
-    curlumppos += size;
-    string(name);
-  };
+  void lump(String name, ByteBuffer data) {
+    lumpnames.add(name);
+    lumps.add(data);
+  }
+
+  // start a new little-endian lump buffer, sized for what we expect
+  void begin(int size) {
+    b = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  ByteBuffer end() {
+    b.flip();
+    return b;
+  }
+
+  void ensure(int n) {
+    if(b.remaining()>=n) return;
+    ByteBuffer nb = ByteBuffer.allocate(Math.max(2*b.capacity(), b.position()+n));
+    nb.order(ByteOrder.LITTLE_ENDIAN);
+    b.flip();
+    nb.put(b);
+    b = nb;
+  }
 
-  void writeByte(int i) throws IOException {
-    f.writeByte(i);
+  void writeByte(int i) {
+    ensure(1);
+    b.put((byte)i);
   }
-  void writeShort(int i) throws IOException {
-    f.writeByte(i&0xFF);
-    f.writeByte((i&0xFF00)>>8);
+
+  void writeShort(int i) {
+    ensure(2);
+    b.putShort((short)i);
   }
 
-  void writeInt(int i) throws IOException {
-    writeShort(i&0xFFFF);
-    writeShort((i&0xFFFF0000)>>16);
+  void writeInt(int i) {
+    ensure(4);
+    b.putInt(i);
   }
 
-  void string(String s) throws IOException {
-    f.writeBytes(s); // XXX: ensure s.length() <= 8?
-    for(int i = 0;i<(8-s.length());i++) f.writeByte(0);
+  void write(byte data[]) {
+    ensure(data.length);
+    b.put(data);
   }
 
-  int writevertices() throws IOException {
+  void string(String s) {
+    ensure(Math.max(s.length(), 8)); // XXX: ensure s.length() <= 8?
+    for(int i = 0;i<s.length();i++) b.put((byte)s.charAt(i));
+    for(int i = 0;i<(8-s.length());i++) b.put((byte)0);
+  }
+
+  ByteBuffer writevertices() {
     Vector v = wr.vertices;
+    begin(v.size()*4);
     for(int i = 0;i<v.size();i++) {
       Vertex a = (Vertex)v.elementAt(i);
       writeShort(-a.x);
       writeShort(a.y);
     };
-    return v.size()*4;
+    if(bsp!=null) {
+      // made by splitting segs, already mirrored
+      for(int a[] : bsp.newvertices) {
+        writeShort(a[0]);
+        writeShort(a[1]);
+      };
+    };
+    return end();
   };
 
-  int writelines() throws IOException {
+  ByteBuffer writesegs() {
+    begin(bsp.segs.size()*12);
+    for(BspSeg s : bsp.segs) {
+      writeShort(s.v1);
+      writeShort(s.v2);
+      writeShort(Bsp.angle(s));
+      writeShort(s.line);
+      writeShort(s.side);
+      writeShort(s.offset);
+    };
+    return end();
+  }
+
+  ByteBuffer writessectors() {
+    begin(bsp.leaves.size()*4);
+    for(BspNode n : bsp.leaves) {
+      writeShort(n.written);
+      writeShort(n.first);
+    };
+    return end();
+  }
+
+  ByteBuffer writereject() {
+    int n = wr.sectors.size();
+    if(!reject) {
+      // nothing rejected: every sector may be able to see every other
+      begin((n*n+7)/8);
+      write(new byte[(n*n+7)/8]);
+      return end();
+    };
+    long start = System.nanoTime();
+    byte t[] = new Reject(written, n).table();
+    int rejected = 0;
+    for(byte x : t) rejected += Integer.bitCount(x & 0xff);
+    mf.msg("REJECT: "+rejected+" of "+(long)n*n+" sector pairs can't see each other ("+
+           (System.nanoTime()-start)/1000000+"ms)");
+    begin(t.length);
+    write(t);
+    return end();
+  }
+
+  ByteBuffer writeblockmap() {
+    Blockmap bm = new Blockmap(written);
+    if(bm.toobig()) {
+      mf.msg("warning: BLOCKMAP is "+2*bm.words+" bytes, more than the 64KB vanilla doom can load");
+    };
+    begin(2*bm.words);
+    writeShort(bm.x0);
+    writeShort(bm.y0);
+    writeShort(bm.columns);
+    writeShort(bm.rows);
+    for(int o : bm.offsets) writeShort(o);
+    for(int l[] : bm.unique) {
+      writeShort(0);
+      for(int i : l) writeShort(i);
+      writeShort(-1);
+    };
+    return end();
+  }
+
+  ByteBuffer writenodes() {
+    if(bsp.nodes.size()>0x7fff || bsp.leaves.size()>0x7fff || bsp.segs.size()>0xffff) {
+      mf.msg("warning: the map has more nodes or segs than vanilla doom can load");
+    };
+    begin(bsp.nodes.size()*28);
+    for(BspNode n : bsp.nodes) {
+      for(int i : Bsp.partition(n)) writeShort(i);
+      for(int i : n.front.box) writeShort(i);
+      for(int i : n.back.box) writeShort(i);
+      writeShort(Bsp.child(n.front));
+      writeShort(Bsp.child(n.back));
+    };
+    return end();
+  }
+
+  ByteBuffer writeglvertices(GlNodes gl) {
+    begin(4+gl.glvertices.size()*8);
+    b.put("gNd5".getBytes(StandardCharsets.US_ASCII));
+    for(int v[] : gl.glvertices) {
+      writeInt(v[0]);
+      writeInt(v[1]);
+    };
+    return end();
+  }
+
+  ByteBuffer writeglsegs(GlNodes gl) {
+    begin(gl.segs.size()*16);
+    for(int s[] : gl.segs) {
+      writeInt(s[0]);
+      writeInt(s[1]);
+      writeShort(s[2]);
+      writeShort(s[3]);
+      writeInt(s[4]);
+    };
+    return end();
+  }
+
+  ByteBuffer writeglssectors(GlNodes gl) {
+    begin(gl.first.length*8);
+    for(int i = 0; i<gl.first.length; i++) {
+      writeInt(gl.count[i]);
+      writeInt(gl.first[i]);
+    };
+    return end();
+  }
+
+  ByteBuffer writeglnodes() {
+    begin(bsp.nodes.size()*32);
+    for(BspNode n : bsp.nodes) {
+      for(int i : Bsp.partition(n)) writeShort(i);
+      for(int i : n.front.box) writeShort(i);
+      for(int i : n.back.box) writeShort(i);
+      writeInt(GlNodes.child(n.front));
+      writeInt(GlNodes.child(n.back));
+    };
+    return end();
+  }
+
+  /*
+   * ZDoom's compressed nodes: "ZNOD", then the vertices, subsectors,
+   * segs and nodes deflated, with 32 bit counts and indices so there
+   * are no vanilla limits on how many there can be.
+   * the split vertices are already in VERTEXES, so there are no new ones
+   */
+  ByteBuffer writeznodes() {
+    begin(16+bsp.leaves.size()*4+bsp.segs.size()*11+bsp.nodes.size()*32);
+    writeInt(wr.vertices.size()+bsp.newvertices.size());
+    writeInt(0);
+    writeInt(bsp.leaves.size());
+    for(BspNode n : bsp.leaves) writeInt(n.written);
+    writeInt(bsp.segs.size());
+    for(BspSeg s : bsp.segs) {
+      writeInt(s.v1);
+      writeInt(s.v2);
+      writeShort(s.line);
+      writeByte(s.side);
+    };
+    writeInt(bsp.nodes.size());
+    for(BspNode n : bsp.nodes) {
+      for(int i : Bsp.partition(n)) writeShort(i);
+      for(int i : n.front.box) writeShort(i);
+      for(int i : n.back.box) writeShort(i);
+      writeInt(GlNodes.child(n.front));
+      writeInt(GlNodes.child(n.back));
+    };
+    ByteBuffer raw = end();
+    Deflater d = new Deflater(Deflater.BEST_COMPRESSION);
+    d.setInput(raw.array(), 0, raw.limit());
+    d.finish();
+    begin(4+raw.limit()/2);
+    b.put("ZNOD".getBytes(StandardCharsets.US_ASCII));
+    byte buf[] = new byte[8192];
+    while(!d.finished()) {
+      int n = d.deflate(buf);
+      ensure(n);
+      b.put(buf, 0, n);
+    };
+    d.end();
+    return end();
+  }
+
+  ByteBuffer writelines() {
     //swapped roles of left and right to account for mirroring bug (see -a.x in vertices/things)
     Vector<Line> v = wr.lines;
-    int numlines = 0;
+    begin(v.size()*(wr.hexen ? 16 : 14));
     for(Line a : v) {
       if(a.left==null) {
         a.left = a.right;
@@ -143,7 +388,6 @@ public class Wad {
       };
       if(!(wr.prunelines && ((a.right!=null && a.left.s==a.right.s && a.type==0)
                           || (a.right==null && a.left==null)))) {
-        numlines++;
         if(a.undefx) {
           Vertex from = a.from;
           Vertex to = a.to;
@@ -157,7 +401,7 @@ public class Wad {
         writeShort(a.to.idx);
         if(a.right!=null) {
           a.flags |= 4;
-          if(!a.midtex) a.m = "-";
+          if(!a.midtex) a.m = wr.texid("-");
         };
         writeShort(a.flags); // flags
         if(!wr.hexen) {
@@ -170,17 +414,17 @@ public class Wad {
         };
         writeShort(a.left.idx);
         writeShort(a.right==null?-1:a.right.idx);
+        written.add(a);
       };
     };
-    return numlines*(wr.hexen ? 16 : 14);
+    return end();
   };
 
-  int writesides() throws IOException {
+  ByteBuffer writesides() {
     Vector v = wr.sides;
-    int numsides = 0;
+    begin(v.size()*30);
     for(int i = 0;i<v.size();i++) {
       Side a = (Side)v.elementAt(i);
-        numsides++;
         writeShort(a.l.xoff);
         writeShort(a.l.yoff);
         int w = a.l.width();
@@ -191,15 +435,17 @@ public class Wad {
         string(lookup("N", a.l.m, a.s.ceil-a.s.floor, w, a.s.floor+1000));
         writeShort(a.s.idx);
     };
-    return numsides*30;
+    return end();
   };
 
-  String lookup(String t, String tex, int h, int w, int f) {
+  String lookup(String t, int id, int h, int w, int f) {
+    String tex = wr.texnames.get(id);
     return (tex.equals("?") ? wr.texrules.retexture(t, h, w, f) : tex).toUpperCase();
   };
 
-  int writesectors() throws IOException {
+  ByteBuffer writesectors() {
     Vector v = wr.sectors;
+    begin(v.size()*26);
     for(int i = 0;i<v.size();i++) {
       Sector a = (Sector)v.elementAt(i);
       writeShort(a.floor);
@@ -210,11 +456,12 @@ public class Wad {
       writeShort(a.type);
       writeShort(a.tag);
     };
-    return v.size()*26;
+    return end();
   };
 
-  int writethings() throws IOException {
+  ByteBuffer writethings() {
     Vector v = wr.things;
+    begin(v.size()*(wr.hexen ? 20 : 10));
     for(int i = 0;i<v.size();i++) {
       Thing a = (Thing)v.elementAt(i);
       if(wr.hexen) writeShort(0);   // thingid?
@@ -229,38 +476,41 @@ public class Wad {
         for(int j : a.specialargs) writeByte(j);
       };
     };
-    return v.size()*(wr.hexen ? 20 : 10);
+    return end();
   };
 
-  int writebehaviour() throws IOException {
+  ByteBuffer writebehaviour() {
     byte data[] = { 65, 67, 0x53, 0, 8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-    if(wr.hexen) f.write(data);
-    return 16;
+    begin(16);
+    write(data);
+    return end();
   };
 
-  int writetextures() throws IOException {
-    int size, offset = 0;
-    if(wp.textures.isEmpty()) return 0;
+  ByteBuffer writetextures() {
+    int offset = 0;
+
+    // array of offsets, then 22 bytes per texture and 10 per patch
+    int size = 4 + wp.textures.size() * 4;
+    for( Texture tex : wp.textures.values() ) size += 22 + 10 * tex.patches.size();
+    begin(size);
 
     writeInt(wp.textures.size());
-    size = 4;
 
     // array of offsets to the textures (4*numtex)
     // offsets are relative to the start of THIS lump
     offset = 4 + wp.textures.size() * 4;
     for( Texture tex : wp.textures.values() ) {
       writeInt(offset);
-      size += 4;
       offset += (22 + 10 * tex.patches.size());
     }
 
     for( Texture tex : wp.textures.values() ) {
-      size += 8; string(tex.name);
-      size += 4; writeInt(0); // garbage
-      size += 2; writeShort(tex.width);
-      size += 2; writeShort(tex.height);
-      size += 4; writeInt(0); // garbage
-      size += 2; writeShort(tex.patches.size());
+      string(tex.name);
+      writeInt(0); // garbage
+      writeShort(tex.width);
+      writeShort(tex.height);
+      writeInt(0); // garbage
+      writeShort(tex.patches.size());
 
       for( Patch p : tex.patches ) {
         int pnum = pnames.get(p.name);
@@ -268,48 +518,21 @@ public class Wad {
         writeShort(p.yoff); // 2 originy
         writeShort(pnum);   // patch number
         writeInt(0);        // 4 garbage
-        size += 10;
       }
     }
-    return size;
+    return end();
   }
 
   void readPnames() throws IOException {
-        byte[] pnamestr = "PNAMES\0\0".getBytes();
-        int doffs, dsize;
-        int poffs = 0, numps;
-
-        RandomAccessFile iwad = new RandomAccessFile(mf.prefs.iwad, "r");
-        iwad.seek(4);
-        dsize = Integer.reverseBytes(iwad.readInt());
-        doffs = Integer.reverseBytes(iwad.readInt());
-
-        // find the PNAMES lump
-        iwad.seek(doffs);
-        for(int i = 0; i < dsize; ++i) {
-            byte[] name = new byte[8];
-            int pos  = Integer.reverseBytes(iwad.readInt());
-            int size = Integer.reverseBytes(iwad.readInt());
-            iwad.read(name);
-
-            if(Arrays.equals(pnamestr, name)) {
-                poffs = pos;
-                break;
-            }
-        }
-        if(0 == poffs) { // XXX: handle ERROR
-        }
-
-        // read in the PNAMES
-        iwad.seek(poffs);
-        numps = Integer.reverseBytes(iwad.readInt());
-        for(int i = 0; i < numps; ++i) {
-            byte[] name = new byte[8];
-            iwad.read(name);
-            pnames.put((new String(name, StandardCharsets.US_ASCII)).replaceAll("\0",""), i);
-        }
-        iwad.close();
+    ByteBuffer lump = WadFile.open(mf.prefs.iwad).lump("PNAMES");
+    if(lump==null) throw new IOException(mf.prefs.iwad+" has no PNAMES lump");
+    int numps = lump.getInt();
+    byte[] name = new byte[8];
+    for(int i = 0; i < numps; ++i) {
+      lump.get(name);
+      pnames.put(WadFile.lumpname(name), i);
     }
+  }
 
   // check for any patches used not in the IWAD
   void findNewPatches() {
@@ -323,18 +546,18 @@ public class Wad {
     }
   }
 
-  int writepnames() throws IOException {
-    if(0==pnames.size() || !write_pnames) return 0;
+  ByteBuffer writepnames() {
 
     String sPnames [] = new String[pnames.size()];
     for(String key : pnames.keySet()) {
       sPnames[pnames.get(key)] = key;
     }
+    begin(4 + 8 * pnames.size());
     writeInt(pnames.size());
     for(String p : sPnames) {
       string(p);
     }
-    return 4 + 8 * pnames.size();
+    return end();
   }
 
   // figure out the version of WadC this is from a property
@@ -350,29 +573,28 @@ public class Wad {
    *    * include directives are expanded, so need to be commented out
    *    * we might need to insert an extra newline between files
    */
-  int writewadcsource() throws IOException {
+  ByteBuffer writewadcsource() throws IOException {
       byte[] nl = "\n".getBytes("UTF-8");
-      int l = 0;
+      begin(mf.getText().length() + 256);
 
       for(String s : Arrays.asList(
         "-- generated with WadC version ", getVersion(), "\n",
         mf.getText() )) {
 
         byte[] v = s.getBytes("UTF-8");
-        f.write(v);
-        l += v.length;
+        write(v);
       }
 
       // append local included files (not from JAR)
       for(String s : wp.includes) {
           if(Files.isRegularFile(wp.resolveinclude(s))) {
-              byte[] b = wp.loadinclude(s).getBytes("UTF-8");
-              f.write(nl); l += nl.length;
-              f.write(b);  l += b.length;
+              byte[] data = wp.loadinclude(s).getBytes("UTF-8");
+              write(nl);
+              write(data);
           }
       }
 
-      return l;
+      return end();
   }
 
 }
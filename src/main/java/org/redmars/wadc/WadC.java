@@ -17,7 +17,6 @@ import java.util.ArrayList;
 import java.util.stream.Collectors;
 import java.util.Locale;
 import java.util.ResourceBundle;
-import java.util.Vector;
 
 import javax.swing.JFrame;
 import javax.swing.JTextArea;
@@ -324,13 +323,11 @@ public class WadC extends JFrame implements WadCMainFrame {
       } catch(Error err) {
           wp.mf.msg("eval: "+err.getMessage());
 
-          Vector stacktrace = wp.wr.stacktrace;
-          if(stacktrace.size()>0) {
+          String stacktrace[] = wp.wr.stacktrace(10);
+          if(stacktrace.length>0) {
             String s = "stacktrace: ";
-            int st = stacktrace.size()-10;
-            if(st<0) st = 0;
-            for(int i = stacktrace.size()-1; i>=st; i--) {
-              s += ((String)stacktrace.elementAt(i))+"\n";
+            for(String t : stacktrace) {
+              s += t+"\n";
             }
             wp.mf.msg(s);
           }
@@ -358,6 +355,9 @@ public class WadC extends JFrame implements WadCMainFrame {
       save(e);
       wadfile = prefs.basename.substring(0,prefs.basename.lastIndexOf('.'))+".wad";
       Wad wad = new Wad(lastwp,this,wadfile,true);
+      wad.nodes = "".equals(prefs.bspcmd);
+      wad.reject = prefs.buildreject;
+      wad.keepnodes = true;
       wad.run();
     };
     return wadfile;
@@ -387,7 +387,8 @@ public class WadC extends JFrame implements WadCMainFrame {
   void bspdoom(String wadfile) {
     if(wadfile==null) return;
 
-    subcmd(Arrays.asList(prefs.bspcmd, wadfile, "-o", wadfile));
+    // with no bspcmd, savewad built the nodes already
+    if(!"".equals(prefs.bspcmd)) subcmd(Arrays.asList(prefs.bspcmd, wadfile, "-o", wadfile));
 
     ArrayList<String> cmd = new ArrayList<String>();
     cmd.add(prefs.doomexe);
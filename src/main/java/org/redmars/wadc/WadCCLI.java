@@ -13,7 +13,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.FileInputStream;
-import java.util.Vector;
 
 /*
  * an initial, very hacky CLI for WadC
@@ -24,31 +23,49 @@ public class WadCCLI implements WadCMainFrame {
     String src = "";
 
     public static void usage() {
-        System.err.println("usage: WadCCLI <infile>");
+        System.err.println("usage: WadCCLI [-vm] [-nodes] [-reject] [-glnodes] [-znodes] [-o <outfile>] <infile>");
         System.exit(1);
     }
 
     public static void main(String [] args) {
 
-        String infile = "";
+        String infile = null;
+        String outfile = null;
         boolean writesrc = true;
-
-        if (args.length < 1) {
-            usage();
-
-        // presently undocumented hack
-        } else if(args.length == 2) {
-            if(!"-nosrc".equals(args[0])) {
+        boolean vm = false;
+        boolean nodes = false;
+        boolean reject = false;
+        boolean glnodes = false;
+        boolean znodes = false;
+
+        for(int i = 0; i<args.length; i++) {
+            String a = args[i];
+            // -nosrc is a presently undocumented hack
+            if("-nosrc".equals(a)) {
+                writesrc = false;
+            } else if("-vm".equals(a)) {
+                vm = true;
+            } else if("-nodes".equals(a)) {
+                nodes = true;
+            } else if("-reject".equals(a)) {
+                reject = true;
+            } else if("-glnodes".equals(a)) {
+                glnodes = true;
+            } else if("-znodes".equals(a)) {
+                znodes = true;
+            } else if("-o".equals(a) && i+1<args.length && outfile == null) {
+                outfile = args[++i];
+            } else if(a.startsWith("-") || infile != null) {
                 usage();
+            } else {
+                infile = a;
             }
-            writesrc = false;
-            infile = args[1];
-
-        } else {
-            infile = args[0];
+        }
+        if(infile == null) {
+            usage();
         }
 
-        WadCCLI w = new WadCCLI(infile, writesrc);
+        WadCCLI w = new WadCCLI(infile, outfile, writesrc, vm, nodes, reject, glnodes, znodes);
     }
 
     // XXX: copied verbatim from MainFrame. should be a static interface method?
@@ -89,29 +106,34 @@ public class WadCCLI implements WadCMainFrame {
     }
 
     /* do the magic */
-    public WadCCLI(final String infile, boolean writesrc) {
+    public WadCCLI(final String infile, String outfile, boolean writesrc, boolean vm,
+                   boolean nodes, boolean reject, boolean glnodes, boolean znodes) {
         String wadfile;
         readPrefs();
         readSource(infile);
         WadParse wp = new WadParse(this.src, this);
+        wp.wr.vm = vm;
         try {
             wp.run();
-            wadfile = prefs.basename.substring(0,prefs.basename.lastIndexOf('.'))+".wad";
+            wadfile = outfile!=null ? outfile : prefs.basename.substring(0,prefs.basename.lastIndexOf('.'))+".wad";
             // XXX: we haven't initialised the prefs properly, so this will fail if
             // if it needs doom2.wad.
             Wad wad = new Wad(wp,this,wadfile,writesrc);
+            // either kind of extra nodes is made from our own
+            wad.nodes = nodes || glnodes || znodes || reject;
+            wad.reject = reject;
+            wad.glnodes = glnodes;
+            wad.znodes = znodes;
             wad.run();
 
         } catch(Error e) {
             System.err.println("eval: "+e.getMessage());
 
-            Vector stacktrace = wp.wr.stacktrace;
-            if(stacktrace.size()>0) {
+            String stacktrace[] = wp.wr.stacktrace(10);
+            if(stacktrace.length>0) {
               System.err.println("stacktrace: ");
-              int st = stacktrace.size()-10;
-              if(st<0) st = 0;
-              for(int i = stacktrace.size()-1; i>=st; i--) {
-                System.err.println((String)stacktrace.elementAt(i));
+              for(String t : stacktrace) {
+                System.err.println(t);
               }
             }
 
@@ -20,6 +20,7 @@ public class WadCPrefs {
   String twad1 = "";
   String twad2 = "";
   String twad3 = "";
+  boolean buildreject = false;
 
   public WadCPrefs() {
   }
@@ -36,6 +37,7 @@ public class WadCPrefs {
       "  twad1(\"" + twad1 + "\")\n" +
       "  twad2(\"" + twad2 + "\")\n" +
       "  twad3(\"" + twad3 + "\")\n" +
+      "  buildreject(" + (buildreject ? 1 : 0) + ")\n" +
       "}\n";
   }
 
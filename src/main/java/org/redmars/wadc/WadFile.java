@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2001-2008 Wouter van Oortmerssen
+ * Copyright © 2008-2016 Jonathan Dowland <jon@dow.land>
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ */
+
+package org.redmars.wadc;
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/*
+ * a read-only WAD (usually the IWAD) with its directory hashed by lump
+ * name. the last one opened is kept, keyed on path and modification
+ * time, so saving a map again (or the next map in a batch) doesn't
+ * re-read the directory. only the directory is kept: the file is open
+ * just while it's being read, so it isn't held locked between saves.
+ */
+
+class WadFile {
+  static WadFile last;
+
+  Path path;
+  long mtime;
+  HashMap<String, Integer> index = new HashMap<>();
+  int pos[], size[];
+
+  static synchronized WadFile open(String filename) throws IOException {
+    Path p = Paths.get(filename).toAbsolutePath();
+    long mtime = Files.getLastModifiedTime(p).toMillis();
+    if(last==null || !last.path.equals(p) || last.mtime!=mtime) last = new WadFile(p, mtime);
+    return last;
+  }
+
+  WadFile(Path p, long mt) throws IOException {
+    path = p;
+    mtime = mt;
+    try(FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+      ByteBuffer header = read(ch, 0, 12);
+      if(header==null) throw new IOException(p+": not a wad");
+      int numlumps = header.getInt(4);
+      int dir = header.getInt(8);
+      ByteBuffer data = numlumps<0 ? null : read(ch, dir, 16L*numlumps);
+      if(data==null) throw new IOException(p+": bad wad directory");
+      pos = new int[numlumps];
+      size = new int[numlumps];
+      byte name[] = new byte[8];
+      for(int i = 0; i<numlumps; i++) {
+        pos[i] = data.getInt();
+        size[i] = data.getInt();
+        data.get(name);
+        // like the engine, a later lump of the same name hides earlier ones
+        index.put(lumpname(name), i);
+      }
+    };
+  }
+
+  // len bytes from offset, little-endian, or null if they aren't all there
+  static ByteBuffer read(FileChannel ch, long offset, long len) throws IOException {
+    if(offset<0 || len<0 || offset+len>ch.size() || len>Integer.MAX_VALUE) return null;
+    ByteBuffer b = ByteBuffer.allocate((int)len).order(ByteOrder.LITTLE_ENDIAN);
+    while(b.hasRemaining()) {
+      if(ch.read(b, offset+b.position())<0) return null;
+    }
+    b.flip();
+    return b;
+  }
+
+  static String lumpname(byte name[]) {
+    int n = 0;
+    while(n<name.length && name[n]!=0) n++;
+    return new String(name, 0, n, StandardCharsets.US_ASCII);
+  }
+
+  // the named lump, little-endian, or null if there isn't one
+  ByteBuffer lump(String name) throws IOException {
+    Integer i = index.get(name);
+    if(i==null) return null;
+    try(FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer b = read(ch, pos[i], size[i]);
+      if(b==null) throw new IOException("lump "+name+" lies outside the wad");
+      return b;
+    }
+  }
+}
@@ -58,8 +58,9 @@ public class WadParse {
   int editinsertpos = 0;
   int editchanged = 0;
   Hashtable funs = new Hashtable();
-  Hashtable globs = new Hashtable();
+  Slots globs = new Slots();     // !name and ^name
   Hashtable tags = new Hashtable();
+  Vector curargs = null;   // arguments of the function being parsed
   WadCMainFrame mf;
   TreeSet<String> includes = new TreeSet<String>();
 
@@ -85,7 +86,8 @@ public class WadParse {
           attachinclude();
         } else {
           Fun f = parsefun();
-          if(funs.put(f.name,f)!=null) error("function "+f.name+" defined twice");
+          Fun old = (Fun)funs.put(f.name,f);
+          if(old!=null && !old.shadowable) error("function "+f.name+" defined twice");
         };
       };
     } catch(Error e) {
@@ -234,7 +236,10 @@ public class WadParse {
       lex();
     };
     expect('{');
+    curargs = f.args;
     f.body = parseexp();
+    curargs = null;
+    f.choices = f.body.haschoice();
     if(f.name.compareTo("main")==0 && token=='}') editinsertpos = pos-1;
     expect('}');
     return f;
@@ -291,7 +296,7 @@ public class WadParse {
         String name = expectid();
         Int i = (Int)tags.get(name);
         if(i==null) {
-          i = new Int(curtag++);
+          i = Int.of(curtag++);
           tags.put(name,i);
         };
         return i;
@@ -303,7 +308,7 @@ public class WadParse {
         return e;
       }
       case '1': {
-        Int i = new Int(iinfo);
+        Int i = Int.of(iinfo);
         lex();
         return i;
       }
@@ -324,6 +329,7 @@ public class WadParse {
           };
           lex();
         };
+        if(i.v==null && curargs!=null) i.slot = curargs.indexOf(i.s);
         return i;
       }
 
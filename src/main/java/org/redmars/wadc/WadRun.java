@@ -35,6 +35,8 @@ class WadRun {
   int cursectortag = 0;
   boolean mergesectors = false;
   boolean prunelines = false;
+  boolean delaunay = false;
+  LineGrid lgrid = null;      // non-null in intersectlines mode
   boolean undefx = false;
   boolean undefy = false;
   int forcesec = -1;
@@ -43,9 +45,20 @@ class WadRun {
   int curlinearg[] = new int[4];
   int curthingarg[] = new int[5];
 
-  Hashtable gvars = new Hashtable();
-  Vector objects = new Vector();
-  Vector stacktrace = new Vector();
+  Slots gvars = new Slots();    // set and get
+  ArrayList<Obj> objects = new ArrayList<>();
+  Shape empty = new Shape();
+  Id trace[] = new Id[256];     // the calls being evaluated, innermost last
+  Frame traceenv[] = new Frame[256];    // and the frame each was made in
+  int depth = 0;
+  Strictness strictness;
+  boolean vm = false;           // run compiled code rather than the tree
+  static final Exp TAILCALL = new Exp();
+  Id tailsite;                  // the call a TAILCALL stands for
+  Exp tailargs[];
+  Frame tailenv;
+  Exp stack[] = new Exp[256];   // the vm's value stack
+  int sp = 0;
 
   int lightlevel = 160;
   int ceil = 128, floor = 0;
@@ -56,6 +69,9 @@ class WadRun {
   String texbot = "BRICK7";
   String texmid = "BRICK7";
   String mapname = "MAP01";
+  // texture names by id and ids by name: lines and sectors only keep the id
+  ArrayList<String> texnames = new ArrayList<>(Collections.singletonList((String)null));
+  HashMap<String, Integer> texids = new HashMap<>();
 
   int xoff = 0, yoff = 0;
   int lineflags = 0;
@@ -67,18 +83,17 @@ class WadRun {
   Vector sides = new Vector();
   Vector sectors = new Vector();
   Vector things = new Vector();
+  HashMap<Sector.Key, Sector> sectorindex = new HashMap<>();
+  int sectorsindexed = 0;     // sectors before this aren't in sectorindex yet
 
-  Vector<Integer> vcoord = new Vector<>();
-  Vector<Vector<Vertex>> vlists = new Vector<>();
+  VertexIndex vindex = new VertexIndex();
 
   AutoRule texrules = null;
 
   // merging and splitting
 
-  Vector<Integer> xcoord = new Vector<>();
-  Vector<Integer> ycoord = new Vector<>();
-  Vector<Vector<Line>> xlists = new Vector<>();
-  Vector<Vector<Line>> ylists = new Vector<>();
+  LineIndex xlines = new LineIndex(true);
+  LineIndex ylines = new LineIndex(false);
 
   // rendering
 
@@ -229,6 +244,11 @@ class WadRun {
       return n;
     }});
 
+    newbuiltin("delaunaylandscape", 0, new Builtin() { Exp eval() {
+      delaunay = !delaunay;
+      return n;
+    }});
+
     builtin("marchingcubes", 3, new Builtin() { Exp eval(Exp a, Exp b, Exp c) {
       marchingcubes(a.ival(),b.ival(),c.ival());
       return n;
@@ -244,6 +264,14 @@ class WadRun {
       return n;
     }});
 
+    newbuiltin("intersectlines", 0, new Builtin() { Exp eval() {
+      if(lgrid==null) {
+        lgrid = new LineGrid();
+        for(Line l : lines) lgrid.add(l);
+      };
+      return n;
+    }});
+
     builtin("thing", 0, new Builtin() { Exp eval() {
       makething((-orient+3)*90);
       return n;
@@ -265,7 +293,7 @@ class WadRun {
         return n;
     }});
     builtin("getthingflags", 0, new Builtin() { Exp eval() {
-        return new Int(thingflags);
+        return Int.of(thingflags);
     }});
 
     builtin("linetype", 2, new Builtin() { Exp eval(Exp a, Exp b) {
@@ -294,7 +322,7 @@ class WadRun {
         return n;
     }});
     builtin("getlineflags", 0, new Builtin() { Exp eval() {
-        return new Int(lineflags);
+        return Int.of(lineflags);
     }});
 
     builtin("setthinghexen", 6, new Builtin() { Exp eval(Exp a, Exp b, Exp c, Exp d, Exp e, Exp f) {
@@ -384,43 +412,43 @@ class WadRun {
       return n;
     }});
 
-    builtin("sin", 1, new Builtin() { Exp eval(Exp a) {
+    purebuiltin("sin", 1, new Builtin() { Exp eval(Exp a) {
       double d = (a.ival()*3.14159)/1800.0;
-      return new Int((int)(Math.sin(d)*1024.0));
+      return Int.of((int)(Math.sin(d)*1024.0));
     }});
 
-    builtin("asin", 1, new Builtin() { Exp eval(Exp a) {
+    purebuiltin("asin", 1, new Builtin() { Exp eval(Exp a) {
       double d = a.ival()/1024.0;
-      return new Int((int)((Math.asin(d)*1800.0)/3.14159));
+      return Int.of((int)((Math.asin(d)*1800.0)/3.14159));
     }});
 
-    builtin("add", 2, new Builtin() { Exp eval(Exp a, Exp b) {
-      return new Int(a.ival()+b.ival());
+    purebuiltin("add", 2, new Builtin() { Exp eval(Exp a, Exp b) {
+      return Int.of(a.ival()+b.ival());
     }});
 
-    builtin("sub", 2, new Builtin() { Exp eval(Exp a, Exp b) {
-      return new Int(a.ival()-b.ival());
+    purebuiltin("sub", 2, new Builtin() { Exp eval(Exp a, Exp b) {
+      return Int.of(a.ival()-b.ival());
     }});
 
-    builtin("mul", 2, new Builtin() { Exp eval(Exp a, Exp b) {
-      return new Int(a.ival()*b.ival());
+    purebuiltin("mul", 2, new Builtin() { Exp eval(Exp a, Exp b) {
+      return Int.of(a.ival()*b.ival());
     }});
 
-    builtin("div", 2, new Builtin() { Exp eval(Exp a, Exp b) {
+    purebuiltin("div", 2, new Builtin() { Exp eval(Exp a, Exp b) {
       if(b.ival()==0) wp.error("division by zero");
-      return new Int(a.ival()/b.ival());
+      return Int.of(a.ival()/b.ival());
     }});
 
-    builtin("and", 2, new Builtin() { Exp eval(Exp a, Exp b) {
-      return new Int(a.ival() & b.ival());
+    purebuiltin("and", 2, new Builtin() { Exp eval(Exp a, Exp b) {
+      return Int.of(a.ival() & b.ival());
     }});
 
-    builtin("not", 1, new Builtin() { Exp eval(Exp a) {
-      return new Int(~ a.ival());
+    purebuiltin("not", 1, new Builtin() { Exp eval(Exp a) {
+      return Int.of(~ a.ival());
     }});
 
-    builtin("or", 2, new Builtin() { Exp eval(Exp a, Exp b) {
-      return new Int(a.ival() | b.ival());
+    purebuiltin("or", 2, new Builtin() { Exp eval(Exp a, Exp b) {
+      return Int.of(a.ival() | b.ival());
     }});
 
     builtin("texture", 3, new Builtin() { Exp eval(Exp s, Exp w, Exp h) {
@@ -433,12 +461,12 @@ class WadRun {
         return n;
     }});
 
-    builtin("eq", 2, new Builtin() { Exp eval(Exp a, Exp b) {
-      return new Int(a.ival()==b.ival()?1:0);
+    purebuiltin("eq", 2, new Builtin() { Exp eval(Exp a, Exp b) {
+      return Int.of(a.ival()==b.ival()?1:0);
     }});
 
-    builtin("lessthaneq", 2, new Builtin() { Exp eval(Exp a, Exp b) {
-      return new Int(a.ival()<=b.ival()?1:0);
+    purebuiltin("lessthaneq", 2, new Builtin() { Exp eval(Exp a, Exp b) {
+      return Int.of(a.ival()<=b.ival()?1:0);
     }});
 
     builtin("print", 1, new Builtin() { Exp eval(Exp s) {
@@ -446,7 +474,7 @@ class WadRun {
       return n;
     }});
 
-    builtin("cat", 2, new Builtin() { Exp eval(Exp a, Exp b) {
+    purebuiltin("cat", 2, new Builtin() { Exp eval(Exp a, Exp b) {
       return new Str(a.sval() + b.sval());
     }});
 
@@ -496,6 +524,11 @@ class WadRun {
       return n;
     }});
 
+    newbuiltin("buildreject", 1, new Builtin() { Exp eval(Exp s) {
+      prefs.buildreject = s.ival()!=0;
+      return n;
+    }});
+
     builtin("togglevertices", 0, new Builtin() { Exp eval() {
       renderverts = !renderverts;
       return n;
@@ -523,37 +556,73 @@ class WadRun {
     }});
 
     builtin("set", 2, new Builtin() { Exp eval(Exp a, Exp b) {
-      gvars.put(a.sval(), b);
+      gvars.val[gvars.slot(a)] = b;
       return b;
     }});
 
     builtin("get", 1, new Builtin() { Exp eval(Exp a) {
-      Exp e = (Exp)gvars.get(a.sval());
+      Exp e = (Exp)gvars.val[gvars.slot(a)];
       if(e==null) wp.error("get: uninitialised variable: "+a.sval());
       return e;
     }});
 
+    // loops. the arguments come in unevaluated, the same as for a
+    // function, so the body runs again each time round. loop and
+    // loopvar behave exactly like the recursive for and fori standard.h
+    // used to have: from and to are looked at again on every pass
+
+    lazybuiltin("loop", 3, 2, new Builtin() { Exp eval(WadRun wr, Frame a) {
+      for(int k = 0; a.arg(wr,0).ival()+k<=a.arg(wr,1).ival(); k++) a.arg(wr,2);
+      return n;
+    }});
+
+    lazybuiltin("loopvar", 4, 3, new Builtin() { Exp eval(WadRun wr, Frame a) {
+      int s = gvars.slot(a.arg(wr,0));
+      gvars.val[s] = a.arg(wr,1);
+      for(int k = 0; a.arg(wr,1).ival()+k<=a.arg(wr,2).ival(); k++) {
+        a.arg(wr,3);
+        gvars.val[s] = Int.of(((Exp)gvars.val[s]).ival()+1);
+      };
+      return n;
+    }});
+
+    lazybuiltin("times", 2, 1, new Builtin() { Exp eval(WadRun wr, Frame a) {
+      int c = a.arg(wr,0).ival();
+      for(int k = 0; k<c; k++) a.arg(wr,1);
+      return n;
+    }});
+
+    lazybuiltin("while", 2, 1, new Builtin() { Exp eval(WadRun wr, Frame a) {
+      while(a.arg(wr,0).ival()!=0) a.arg(wr,1);
+      return n;
+    }});
+
     builtin("onew", 0, new Builtin() { Exp eval() {
       int n = objects.size();
-      objects.addElement(new Hashtable());
-      return new Int(n);
+      objects.add(new Obj(empty));
+      return Int.of(n);
     }});
 
     builtin("oset", 3, new Builtin() { Exp eval(Exp a, Exp b, Exp c) {
       int i = a.ival();
       if(i<0 || i>=objects.size()) wp.error("oset: illegal object pointer");
-      ((Hashtable)objects.elementAt(i)).put(b.sval(), c);
+      objects.get(i).set(field(b), c);
       return c;
     }});
 
     builtin("oget", 2, new Builtin() { Exp eval(Exp a, Exp b) {
       int i = a.ival();
       if(i<0 || i>=objects.size()) wp.error("oget: illegal object pointer");
-      Exp e = (Exp)((Hashtable)objects.elementAt(i)).get(b.sval());
+      Exp e = objects.get(i).get(field(b));
       if(e==null) wp.error("oget: uninitialised object field: "+b.sval());
       return e;
     }});
 
+    newbuiltin("strictreport", 0, new Builtin() { Exp eval() {
+      strictness.report();
+      return n;
+    }});
+
     builtin("undefx", 0, new Builtin() { Exp eval() {
       undefx = true;
       return n;
@@ -574,7 +643,7 @@ class WadRun {
     }});
 
     builtin("lastsector", 0, new Builtin() { Exp eval() {
-      return new Int(sectorStack.peek());
+      return Int.of(sectorStack.peek());
     }});
 
     builtin("forcesector", 1, new Builtin() { Exp eval(Exp a) {
@@ -589,7 +658,7 @@ class WadRun {
     }});
 
     builtin("newtag", 0, new Builtin() { Exp eval() {
-      return new Int(wp.curtag++);
+      return Int.of(wp.curtag++);
     }});
 
     builtin("mapname", 1, new Builtin() { Exp eval(Exp a) {
@@ -598,6 +667,33 @@ class WadRun {
     }});
   }
 
+  // an object field name as a Str, which caches where it was last found
+  Str field(Exp e) { return e instanceof Str ? (Str)e : new Str(e.sval()); }
+
+  void purebuiltin(String s, int nargs, Builtin b) {
+    b.pure = true;
+    builtin(s,nargs,b);
+  }
+
+  // a builtin that gets its arguments unevaluated in a Frame, and
+  // always evaluates the first nstrict of them
+  // these are newer than most programs, which may have functions of the
+  // same name: those replace them. standard.h uses the _ name, which
+  // stays the builtin
+  void lazybuiltin(String s, int nargs, int nstrict, Builtin b) {
+    b.lazy = true;
+    b.nstrict = nstrict;
+    newbuiltin(s,nargs,b);
+  }
+
+  // a builtin programs may already have a function of the same name as:
+  // theirs replaces it. "_"+s always gets the builtin
+  void newbuiltin(String s, int nargs, Builtin b) {
+    builtin("_"+s,nargs,b);
+    builtin(s,nargs,b);
+    ((Fun)wp.funs.get(s)).shadowable = true;
+  }
+
   void builtin(String s, int nargs, Builtin b) {
     b.nargs = nargs;
     Fun f = new Fun(s);
@@ -627,21 +723,13 @@ class WadRun {
   }
 
   Vertex makevertex(int xp, int yp) {
-    Vertex v = null;
-    Vector vlist = coordlookup(xp,vcoord,vlists);
-    if(vlist!=null) {
-      for(int i = 0;i<vlist.size();i++) {
-        v = (Vertex)vlist.elementAt(i);
-        if(v.x==xp && v.y==yp) break;
-        v = null;
-      };
-    };
+    Vertex v = vindex.get(xp,yp);
     if(v==null) {
       v = new Vertex();
       v.x = xp;
       v.y = yp;
       vertices.addElement(v);
-      addcoordlists(v,xp,vcoord,vlists);
+      vindex.put(v);
     };
     return v;
   }
@@ -653,9 +741,9 @@ class WadRun {
   };
 
   void makeline() {
-    Vector<Line> v = lastvertex.v;
+    Vertex v = lastvertex;
     for(int i = 0; i < v.size(); i++) {
-      Line l = v.elementAt(i);
+      Line l = v.get(i);
       if((l.from==lastvertex && l.to==beforelastvertex) ||
          (l.to==lastvertex && l.from==beforelastvertex)) {
         lastline = l;
@@ -665,7 +753,9 @@ class WadRun {
     collect.clear();
     collect.add(beforelastvertex);
 
-    if(beforelastvertex.x==lastvertex.x) {
+    if(lgrid!=null) {
+      intersectlines(beforelastvertex, lastvertex);
+    } else if(beforelastvertex.x==lastvertex.x) {
       splitlines(beforelastvertex, lastvertex, true, lastvertex.x);
     } else if(beforelastvertex.y==lastvertex.y) {
       splitlines(beforelastvertex, lastvertex, false, lastvertex.y);
@@ -675,7 +765,8 @@ class WadRun {
 
     // This fixes the case where a line is split by a second linedef
     // which has the opposite direction to the overdrawn one
-    for(Line l : lastvertex.v) {
+    for(int i = 0; i < lastvertex.size(); i++) {
+      Line l = lastvertex.get(i);
       Vertex other = lastvertex==l.from ? l.to : l.from;
 
       if(other == beforelastvertex) {
@@ -684,8 +775,8 @@ class WadRun {
       }
     }
     // no exact line found above; use collect
-    for(int i = 0; i < lastvertex.v.size(); i++) {
-      Line l = lastvertex.v.elementAt(i);
+    for(int i = 0; i < lastvertex.size(); i++) {
+      Line l = lastvertex.get(i);
       Vertex other = lastvertex==l.from ? l.to : l.from;
       for(Vertex o : collect) {
         if(other==o) {
@@ -701,9 +792,9 @@ class WadRun {
   void makeline_really(Vertex from, Vertex to) {
     Line l = makeline_minimal(from,to);
     lastline = l;
-    l.t = textop;
-    l.m = texmid;
-    l.b = texbot;
+    l.t = texid(textop);
+    l.m = texid(texmid);
+    l.b = texid(texbot);
     l.xoff = xoff;
     l.yoff = yoff;
     l.undefx = undefx;
@@ -711,7 +802,7 @@ class WadRun {
     l.type = curlinetype;
     l.tag = curlinetag;
     l.flags |= lineflags;
-    for(int i = 0; i < curlinearg.length; i++) l.specialargs[i] = curlinearg[i];
+    l.specialargs = args(curlinearg, Line.NOARGS);
   };
 
   Line makeline_minimal(Vertex from, Vertex to) {
@@ -725,79 +816,150 @@ class WadRun {
     lines.addElement(l);
     from.insert(l);
     to.insert(l);
-    if(from.x==to.x) addcoordlists(l,from.x,xcoord,xlists);
-    if(from.y==to.y) addcoordlists(l,from.y,ycoord,ylists);
+    if(from.x==to.x) xlines.add(l);
+    if(from.y==to.y) ylines.add(l);
+    if(lgrid!=null) lgrid.add(l);
     return l;
   };
 
-  <T> void addcoordlists(T o, int coord, Vector<Integer> coords, Vector<Vector<T>> lists) {
-    int i = 0;
-    for(;i<coords.size();i++) if(coords.elementAt(i)==coord) break;
-    Vector<T> v;
-    if(i<coords.size()) {
-      v = lists.elementAt(i);
-    } else {
-      coords.addElement(coord);
-      lists.addElement(v = new Vector<T>());
+  void splitlines(Vertex a, Vertex b, boolean eqx, int coord) {
+    LineIndex index = eqx ? xlines : ylines;
+    int c1 = eqx ? a.y : a.x;
+    int c2 = eqx ? b.y : b.x;
+    Vertex ca = a;
+    Vertex cb = b;
+    if(c1>c2) { int temp = c2; c2 = c1; c1 = temp; ca = b; cb = a; };
+    Line l = index.firstoverlap(coord, c1, c2);
+    if(l==null) {       // no overlap
+      makeline_really(a,b);
+      return;
+    };
+    int lc1 = eqx ? l.from.y : l.from.x;
+    int lc2 = eqx ? l.to.y : l.to.x;
+    Vertex lca = l.from;
+    Vertex lcb = l.to;
+    if(lc1>lc2) { int temp = lc2; lc2 = lc1; lc1 = temp; lca = l.to; lcb = l.from; };
+    collect.add(lca);
+    collect.add(lcb);
+    collect.add(ca);
+    collect.add(cb);
+    index.remove(l);
+    if(c1<lc1) {    // overlap on the left
+      splitlines((ca==a ? ca : lca), (ca==a ? lca : ca), eqx, coord);
+    };
+    if(c2>lc2) {    // overlap on the right
+      splitlines((cb==b ? cb : lcb), (cb==b ? lcb : cb), eqx, coord);
+    };
+    index.add(l);
+    if(c1>lc1) {   // overlap starts within
+      l = splitatvertex(l, lca==l.from, eqx ? coord : c1, eqx ? c1 : coord);
+    };
+    if(c2<lc2) {   // overlap ends within
+      splitatvertex(l, lcb==l.to, eqx ? coord : c2, eqx ? c2 : coord);
     };
-    v.addElement(o);
   }
 
-  <T> Vector<T> coordlookup(int coord, Vector<Integer> coords, Vector<Vector<T>> lists) {
-    for(int i = 0; i<coords.size(); i++) {
-      if(coords.elementAt(i) == coord) {
-        return lists.elementAt(i);
-      }
-    }
-    return null;
+  // intersectlines mode: split the new line a-b, and every existing line,
+  // wherever the two cross, touch or overlap
+  void intersectlines(Vertex a, Vertex b) {
+    ArrayList<Vertex> cuts = new ArrayList<>();
+    LinkedHashMap<Line, ArrayList<Vertex>> hits = new LinkedHashMap<>();
+    for(Line l : lgrid.near(a,b)) {
+      Vertex p = l.from;
+      Vertex q = l.to;
+      long o1 = orient(a,b,p);
+      long o2 = orient(a,b,q);
+      long o3 = orient(p,q,a);
+      long o4 = orient(p,q,b);
+      if(o1!=0 && o2!=0 && o3!=0 && o4!=0) {
+        if((o1>0)==(o2>0) || (o3>0)==(o4>0)) continue;    // no contact
+        // proper crossing: the exact point is rational, round it to the grid
+        long d = o3-o4;
+        Vertex x = makevertex(a.x+(int)roundiv((b.x-a.x)*o3,d), a.y+(int)roundiv((b.y-a.y)*o3,d));
+        if(x!=a && x!=b) cuts.add(x);
+        if(x!=p && x!=q) hitat(hits,l,x);
+        continue;
+      };
+      // touching or collinear: any end point lying inside the other line
+      if(o1==0 && within(a,b,p)) cuts.add(p);
+      if(o2==0 && within(a,b,q)) cuts.add(q);
+      if(o3==0 && within(p,q,a)) hitat(hits,l,a);
+      if(o4==0 && within(p,q,b)) hitat(hits,l,b);
+    };
+    for(Map.Entry<Line, ArrayList<Vertex>> e : hits.entrySet()) {
+      Line l = e.getKey();
+      ArrayList<Vertex> at = e.getValue();
+      Vertex from = l.from;
+      Vertex to = l.to;
+      // furthest first, so each split leaves l as the piece still to cut
+      at.sort((u,v) -> Long.compare(along(from,to,v),along(from,to,u)));
+      for(Vertex v : at) l = splitatvertex(l, false, v.x, v.y);
+    };
+    cuts.sort((u,v) -> Long.compare(along(a,b,u),along(a,b,v)));
+    cuts.add(b);
+    Vertex prev = a;
+    for(Vertex v : cuts) {
+      if(v==prev) continue;
+      collect.add(v);
+      if(findline(prev,v)==null) makeline_really(prev,v);
+      prev = v;
+    };
   }
 
-  void splitlines(Vertex a, Vertex b, boolean eqx, int coord) {
-    Vector<Line> v = coordlookup(coord, eqx ? xcoord : ycoord,
-                                  eqx ? xlists : ylists);
-    if(v!=null) for(int i = 0; i<v.size(); i++) {
-      int c1 = eqx ? a.y : a.x;
-      int c2 = eqx ? b.y : b.x;
-      Line l = v.elementAt(i);
-      int lc1 = eqx ? l.from.y : l.from.x;
-      int lc2 = eqx ? l.to.y : l.to.x;
-      Vertex ca = a;
-      Vertex cb = b;
-      Vertex lca = l.from;
-      Vertex lcb = l.to;
-      if(c1>c2) { int temp = c2; c2 = c1; c1 = temp; ca = b; cb = a; };
-      if(lc1>lc2) { int temp = lc2; lc2 = lc1; lc1 = temp; lca = l.to; lcb = l.from; };
-      if(c2<=lc1 || c1>=lc2) continue;       // no overlap
-      collect.add(lca);
-      collect.add(lcb);
-      collect.add(ca);
-      collect.add(cb);
-      v.removeElementAt(i);
-      if(c1<lc1) {    // overlap on the left
-        splitlines((ca==a ? ca : lca), (ca==a ? lca : ca), eqx, coord);
-      };
-      if(c2>lc2) {    // overlap on the right
-        splitlines((cb==b ? cb : lcb), (cb==b ? lcb : cb), eqx, coord);
-      };
-      v.addElement(l);
-      if(c1>lc1) {   // overlap starts within
-        l = splitatvertex(l, lca==l.from, eqx ? coord : c1, eqx ? c1 : coord);
-      };
-      if(c2<lc2) {   // overlap ends within
-        splitatvertex(l, lcb==l.to, eqx ? coord : c2, eqx ? c2 : coord);
-      };
-      return;
+  void hitat(LinkedHashMap<Line, ArrayList<Vertex>> hits, Line l, Vertex v) {
+    ArrayList<Vertex> at = hits.get(l);
+    if(at==null) hits.put(l, at = new ArrayList<>());
+    if(!at.contains(v)) at.add(v);
+  }
+
+  Line findline(Vertex a, Vertex b) {
+    for(int i = 0; i<a.size(); i++) {
+      Line l = a.get(i);
+      if((l.from==a && l.to==b) || (l.from==b && l.to==a)) return l;
     };
-    makeline_really(a,b);
+    return null;
+  }
+
+  // >0 if c is left of a-b, <0 if right, 0 if on the line
+  static long orient(Vertex a, Vertex b, Vertex c) {
+    return (long)(b.x-a.x)*(c.y-a.y) - (long)(b.y-a.y)*(c.x-a.x);
+  }
+
+  // for c on the line through a-b: strictly between the end points?
+  static boolean within(Vertex a, Vertex b, Vertex c) {
+    if(c.x==a.x && c.y==a.y) return false;
+    if(c.x==b.x && c.y==b.y) return false;
+    return c.x>=Math.min(a.x,b.x) && c.x<=Math.max(a.x,b.x) &&
+           c.y>=Math.min(a.y,b.y) && c.y<=Math.max(a.y,b.y);
+  }
+
+  static long along(Vertex a, Vertex b, Vertex c) {
+    return (long)(c.x-a.x)*(b.x-a.x) + (long)(c.y-a.y)*(b.y-a.y);
+  }
+
+  static long roundiv(long n, long d) {
+    if(d<0) { n = -n; d = -d; };
+    return Math.floorDiv(2*n+d, 2*d);
   }
 
   Line splitatvertex(Line l, boolean fromto, int x, int y) {
     Vertex mid = makevertex(x, y);
+    boolean eqx = l.from.x==l.to.x;
+    boolean eqy = l.from.y==l.to.y;
+    if(eqx) xlines.remove(l);
+    if(eqy) ylines.remove(l);
     l.to.remove(l);
     Line sec = makeline_minimal(mid,l.to);
     sec.copyattrs(l,sides);
+    boolean bent = orient(l.from,l.to,mid)!=0;
     l.to = mid;
     mid.insert(l);
+    if(bent) {    // rounded crossing point: re-sort l around its from end
+      l.from.remove(l);
+      l.from.insert(l);
+    };
+    if(eqx) xlines.put(l);
+    if(eqy) ylines.put(l);
     return fromto ? sec : l;
   };
 
@@ -810,25 +972,41 @@ class WadRun {
     t.idx = things.size();
     t.angle = angle;
 
-    for(int i = 0; i < curthingarg.length; i++) t.specialargs[i] = curthingarg[i];
+    t.specialargs = args(curthingarg, Thing.NOARGS);
     things.addElement(t);
   }
 
+  // most lines and things have no hexen args, so they all share one
+  // array of zeros; the rest get their own copy of the pen's args
+  int[] args(int cur[], int none[]) {
+    for(int a : cur) if(a!=0) return cur.clone();
+    return none;
+  }
+
+  int texid(String s) {
+    Integer i = texids.get(s);
+    if(i==null) {
+      i = texnames.size();
+      texids.put(s, i);
+      texnames.add(s);
+    };
+    return i;
+  }
+
   Sector newsector() {
     if(forcesec>=0 && forcesec<sectors.size()) return (Sector)sectors.elementAt(forcesec);
+    int ctex = texid(texceil), ftex = texid(texfloor);
     if(mergesectors) {
-      for(int i = 0;i<sectors.size();i++) {
-        Sector s = (Sector)sectors.elementAt(i);
-        if(s.ceil==ceil &&
-           s.floor==floor &&
-           s.light==lightlevel &&
-           s.tag==cursectortag &&
-           s.type==cursectortype &&
-           s.ctex.compareTo(texceil)==0 &&
-           s.ftex.compareTo(texfloor)==0) return s;
+      // index sectors made before mergesectors was turned on, in order,
+      // as it picks the first match
+      for(; sectorsindexed<sectors.size(); sectorsindexed++) {
+        Sector s = (Sector)sectors.elementAt(sectorsindexed);
+        sectorindex.putIfAbsent(s.key(), s);
       };
+      Sector s = sectorindex.get(new Sector.Key(ctex,ftex,ceil,floor,lightlevel,cursectortype,cursectortag));
+      if(s!=null) return s;
     };
-    return new Sector(texceil,texfloor,ceil,floor,lightlevel,sectors,cursectortype,cursectortag);
+    return new Sector(ctex,ftex,ceil,floor,lightlevel,sectors,cursectortype,cursectortag);
   }
 
   void makesector(boolean rightside, int lastsec, int flr, int cl, int ll) {
@@ -870,15 +1048,14 @@ class WadRun {
         nis.s = inside;
       };
       if(v==lastvertex) return;
-      //for(int i = 0;i<v.v.size();i++) { Line m = (Line)v.v.elementAt(i); wp.mf.msg("line: "+v.angle(m)); };
-      for(int i = 0;i<v.v.size();i++) {
-        Line m = v.v.elementAt(i);
+      for(int i = 0;i<v.size();i++) {
+        Line m = v.get(i);
         if(m==l) {
           //wp.mf.msg("pick: "+i);
           if(rightside) { i--; } else { i++; };
-          if(i<0) i = v.v.size()-1;
-          if(i>=v.v.size()) i = 0;
-          m = v.v.elementAt(i);
+          if(i<0) i = v.size()-1;
+          if(i>=v.size()) i = 0;
+          m = v.get(i);
           if(m==l) { errsec = sec; wp.error("trying to make sector on unconnected line"); };
           l = m;
           v = l.from==v?l.to:l.from;
@@ -1090,122 +1267,271 @@ class WadRun {
       Choice.setSeed((int)System.currentTimeMillis());
       wp.mf.msg("random seed set to " + Choice.seed);
       makevertex();
-      call(new Id("main"));
-      for(int i = 0; i<vertices.size(); i++) {
-        Vertex v = vertices.elementAt(i);
-        if(v.v.size()==0) {
-          vertices.remove(v);
-          i--;
+      depth = 0;
+      Int.made = Int.shared = 0;
+      new Linker(this);
+      strictness = new Strictness(this);
+      if(vm) {
+        CodeGen.compile(wp.funs);
+        Fun main = (Fun)wp.funs.get("main");
+        if(main==null || main.builtin!=null || main.args.size()!=0) {
+          call(new Id("main"),null);
         } else {
-          v.idx = i;
+          sp = 0;
+          vmcall(new Id("main"),main,Frame.NOEXP,null);
         };
+      } else {
+        call(new Id("main"),null);
       };
+      long start = System.nanoTime();
+      int before = vertices.size();
+      compactvertices();
+      wp.mf.msg("removed "+(before-vertices.size())+" unused vertices in "+
+                (System.nanoTime()-start)/1000000+"ms");
       wp.mf.msg(vertices.size()+" vertices, "+lines.size()+" lines, "+sectors.size()+" sectors.");
+      wp.mf.msg(Int.made+" numbers allocated, "+Int.shared+" shared.");
+  }
+
+  // drop vertices no line uses, keeping the rest in order, and number them
+  void compactvertices() {
+    int n = 0;
+    for(int i = 0; i<vertices.size(); i++) {
+      Vertex v = vertices.elementAt(i);
+      if(v.size()==0) continue;
+      v.idx = n;
+      vertices.set(n++, v);
+    };
+    vertices.setSize(n);
   }
 
   void varerr(String s) { wp.error("variable "+s+" never set"); }
 
-  Exp call(Id caller) {
+  Exp call(Id caller, Frame env) {
     //System.out.println(caller.show());
-    stacktrace.addElement(caller.show());
-    Fun f = (Fun)wp.funs.get(caller.s);
+    pushtrace(caller,env);
     Vector v = caller.v;
     int nargs = 0;
     if(v!=null) nargs = v.size();
-    //mf.msg("debug: "+caller.s+"/"+nargs+" "+f);
-    if(f==null) wp.error("undefined identifier: "+caller.s);
+    Fun f = caller.fun;
+    if(f==null) {
+      // not linked: main itself, or a call the linker never saw
+      f = (Fun)wp.funs.get(caller.s);
+      if(f==null) wp.error("undefined identifier: "+caller.s);
+      if(nargs!=f.nargs()) {
+        wp.error("wrong number of arguments for "+(f.builtin!=null ? "builtin: " : "macro: ")+caller.s);
+      };
+    };
     Builtin b = f.builtin;
     Exp r = null;
-    if(b!=null) {
-      if(nargs!=b.nargs) wp.error("wrong number of arguments for builtin: "+caller.s);
+    if(b!=null && b.lazy) {
+      r = b.eval(this, new Frame(caller.argv(),env));
+    } else if(b!=null) {
       switch(nargs) {
         case 0: r = b.eval(); break;
-        case 1: r = b.eval(((Exp)v.elementAt(0)).eval(this)); break;
-        case 2: r = b.eval(((Exp)v.elementAt(0)).eval(this),
-                           ((Exp)v.elementAt(1)).eval(this)); break;
-        case 3: r = b.eval(((Exp)v.elementAt(0)).eval(this),
-                           ((Exp)v.elementAt(1)).eval(this),
-                           ((Exp)v.elementAt(2)).eval(this)); break;
-        case 4: r = b.eval(((Exp)v.elementAt(0)).eval(this),
-                           ((Exp)v.elementAt(1)).eval(this),
-                           ((Exp)v.elementAt(2)).eval(this),
-                           ((Exp)v.elementAt(3)).eval(this)); break;
-        case 5: r = b.eval(((Exp)v.elementAt(0)).eval(this),
-                           ((Exp)v.elementAt(1)).eval(this),
-                           ((Exp)v.elementAt(2)).eval(this),
-                           ((Exp)v.elementAt(3)).eval(this),
-                           ((Exp)v.elementAt(4)).eval(this)); break;
-        case 6: r = b.eval(((Exp)v.elementAt(0)).eval(this),
-                           ((Exp)v.elementAt(1)).eval(this),
-                           ((Exp)v.elementAt(2)).eval(this),
-                           ((Exp)v.elementAt(3)).eval(this),
-                           ((Exp)v.elementAt(4)).eval(this),
-                           ((Exp)v.elementAt(5)).eval(this)); break;
+        case 1: r = b.eval(((Exp)v.elementAt(0)).eval(this,env)); break;
+        case 2: r = b.eval(((Exp)v.elementAt(0)).eval(this,env),
+                           ((Exp)v.elementAt(1)).eval(this,env)); break;
+        case 3: r = b.eval(((Exp)v.elementAt(0)).eval(this,env),
+                           ((Exp)v.elementAt(1)).eval(this,env),
+                           ((Exp)v.elementAt(2)).eval(this,env)); break;
+        case 4: r = b.eval(((Exp)v.elementAt(0)).eval(this,env),
+                           ((Exp)v.elementAt(1)).eval(this,env),
+                           ((Exp)v.elementAt(2)).eval(this,env),
+                           ((Exp)v.elementAt(3)).eval(this,env)); break;
+        case 5: r = b.eval(((Exp)v.elementAt(0)).eval(this,env),
+                           ((Exp)v.elementAt(1)).eval(this,env),
+                           ((Exp)v.elementAt(2)).eval(this,env),
+                           ((Exp)v.elementAt(3)).eval(this,env),
+                           ((Exp)v.elementAt(4)).eval(this,env)); break;
+        case 6: r = b.eval(((Exp)v.elementAt(0)).eval(this,env),
+                           ((Exp)v.elementAt(1)).eval(this,env),
+                           ((Exp)v.elementAt(2)).eval(this,env),
+                           ((Exp)v.elementAt(3)).eval(this,env),
+                           ((Exp)v.elementAt(4)).eval(this,env),
+                           ((Exp)v.elementAt(5)).eval(this,env)); break;
         default: wp.error("oops");
       };
     } else {
-      if(nargs!=f.args.size()) wp.error("wrong number of arguments for macro: "+caller.s);
-      if(v!=null) for(int i = 0; i<v.size(); i++) {
-        if(((String)f.args.get(i)).charAt(0)=='_') v.set(i, ((Exp)v.elementAt(i)).eval(this));
+      // calls in tail position come back here rather than nesting
+      for(;;) {
+        Frame fr = new Frame(caller.argv(),env);
+        enter(f,fr);
+        r = (f.choices ? f.body.choose() : f.body).tail(this,fr);
+        if(r!=TAILCALL) break;
+        caller = tailsite;
+        env = tailenv;
+        f = caller.fun;
+        trace[depth-1] = caller;
+        traceenv[depth-1] = env;
       };
-      Exp e = f.body;
-      //if(nargs>0)
-      e = e.replace(f.args,v);
-      r = e.eval(this);
     };
-    stacktrace.setSize(stacktrace.size()-1);
+    depth--;
     return r;
   }
 
-  int rnd(int n) { return Math.abs(rnd.nextInt())%n; }
+  void pushtrace(Id caller, Frame env) {
+    if(depth==trace.length) {
+      trace = Arrays.copyOf(trace, 2*depth);
+      traceenv = Arrays.copyOf(traceenv, 2*depth);
+    };
+    traceenv[depth] = env;
+    trace[depth++] = caller;
+  }
 
-  float dist(Vertex a, Vertex b) {
-    int dx = Math.abs(a.x-b.x);
-    int dy = Math.abs(a.y-b.y);
-    return (float)Math.sqrt(dx*dx+dy*dy);
+  // the innermost calls at the time of an error, at most max of them,
+  // with the arguments of the functions they're in filled in
+  String[] stacktrace(int max) {
+    String s[] = new String[Math.min(max, depth)];
+    for(int i = 0; i<s.length; i++) s[i] = trace[depth-1-i].show(traceenv[depth-1-i]);
+    return s;
   }
 
+  // evaluate the _ arguments of a call, and the strict ones that are pure
+  void enter(Fun f, Frame fr) {
+    for(int i = 0; i<fr.val.length; i++) {
+      Exp v = fr.val[i];
+      if(v!=null && v!=Frame.IMPURE) continue;
+      if(f.eager(i) || (f.strict[i] && v==null && fr.exp[i].pure(this,fr.env[i]))) {
+        fr.set(i, fr.exp[i].eval(this,fr.env[i]));
+      };
+    };
+  }
+
+  Exp vmcall(Id site, Fun f, Exp args[], Frame env) {
+    pushtrace(site,env);
+    for(;;) {
+      Frame fr = new Frame(args,env);
+      enter(f,fr);
+      if(f.nchoices>0) {
+        fr.picks = new int[f.nchoices];
+        f.body.draw(fr.picks);
+      };
+      Exp r = exec(f.code,fr);
+      if(r!=TAILCALL) {
+        depth--;
+        return r;
+      };
+      site = tailsite;
+      f = site.fun;
+      args = tailargs;
+      env = tailenv;
+      trace[depth-1] = site;
+      traceenv[depth-1] = env;
+    }
+  }
+
+  // run compiled code. nested calls and arguments run further up the
+  // same stack, which may get reallocated under us, so always go
+  // through the field and never store straight from a call into it
+  Exp exec(Code c, Frame env) {
+    if(sp+c.maxstack>stack.length) stack = Arrays.copyOf(stack, Math.max(2*stack.length, sp+c.maxstack));
+    int code[] = c.code;
+    int pc = 0;
+    Exp r, a, b;
+    for(;;) switch(code[pc++]) {
+      case Code.PUSH: stack[sp++] = c.k[code[pc++]]; break;
+      case Code.ARG: r = env.arg(this,code[pc++]); stack[sp++] = r; break;
+      case Code.POP: stack[--sp] = null; break;
+      case Code.JF: pc = stack[--sp].ival()==0 ? code[pc] : pc+1; break;
+      case Code.JMP: pc = code[pc]; break;
+      case Code.CHOOSE: pc = code[pc+2+env.picks[code[pc]]]; break;
+      case Code.EVAL: r = c.k[code[pc++]].eval(this,env); stack[sp++] = r; break;
+      case Code.TRACE: pushtrace(c.site[code[pc++]],env); break;
+      case Code.BUILTIN: {
+        Builtin bi = c.fun[code[pc++]].builtin;
+        int n = bi.nargs;
+        Exp s[] = stack;
+        sp -= n;
+        switch(n) {
+          case 0: r = bi.eval(); break;
+          case 1: r = bi.eval(s[sp]); break;
+          case 2: r = bi.eval(s[sp],s[sp+1]); break;
+          case 3: r = bi.eval(s[sp],s[sp+1],s[sp+2]); break;
+          case 4: r = bi.eval(s[sp],s[sp+1],s[sp+2],s[sp+3]); break;
+          case 5: r = bi.eval(s[sp],s[sp+1],s[sp+2],s[sp+3],s[sp+4]); break;
+          default: r = bi.eval(s[sp],s[sp+1],s[sp+2],s[sp+3],s[sp+4],s[sp+5]); break;
+        };
+        for(int i = 0; i<n; i++) s[sp+i] = null;
+        stack[sp++] = r;
+        depth--;
+        break;
+      }
+      case Code.CALL: {
+        int s = code[pc++];
+        r = vmcall(c.site[s],c.fun[s],c.argv[s],env);
+        stack[sp++] = r;
+        break;
+      }
+      case Code.LAZY: {
+        int s = code[pc++];
+        pushtrace(c.site[s],env);
+        r = c.fun[s].builtin.eval(this, new Frame(c.argv[s],env));
+        depth--;
+        stack[sp++] = r;
+        break;
+      }
+      case Code.RET: r = stack[--sp]; stack[sp] = null; return r;
+      case Code.TCALL: {
+        int s = code[pc++];
+        tailsite = c.site[s];
+        tailargs = c.argv[s];
+        tailenv = env;
+        return TAILCALL;
+      }
+      case Code.ADD: b = stack[--sp]; a = stack[--sp]; stack[sp++] = Int.of(a.ival()+b.ival()); break;
+      case Code.SUB: b = stack[--sp]; a = stack[--sp]; stack[sp++] = Int.of(a.ival()-b.ival()); break;
+      case Code.MUL: b = stack[--sp]; a = stack[--sp]; stack[sp++] = Int.of(a.ival()*b.ival()); break;
+      case Code.DIV:
+        b = stack[--sp]; a = stack[--sp];
+        if(b.ival()==0) {
+          pushtrace(c.site[code[pc]],env);
+          wp.error("division by zero");
+        };
+        pc++;
+        stack[sp++] = Int.of(a.ival()/b.ival());
+        break;
+      case Code.AND: b = stack[--sp]; a = stack[--sp]; stack[sp++] = Int.of(a.ival() & b.ival()); break;
+      case Code.OR: b = stack[--sp]; a = stack[--sp]; stack[sp++] = Int.of(a.ival() | b.ival()); break;
+      case Code.NOT: a = stack[--sp]; stack[sp++] = Int.of(~ a.ival()); break;
+      case Code.EQ: b = stack[--sp]; a = stack[--sp]; stack[sp++] = Int.of(a.ival()==b.ival()?1:0); break;
+      case Code.LE: b = stack[--sp]; a = stack[--sp]; stack[sp++] = Int.of(a.ival()<=b.ival()?1:0); break;
+      case Code.CAT: b = stack[--sp]; a = stack[--sp]; stack[sp++] = new Str(a.sval() + b.sval()); break;
+      default: wp.error("vm: bad opcode"); return null;
+    }
+  }
+
+  int rnd(int n) { return Math.abs(rnd.nextInt())%n; }
+
   void landscape(int width, int height, int density) {
     int xstart = xp;
     int ystart = yp;
     for(int i = 0; i<density; i++) makevertex(xstart+rnd(width),ystart+rnd(height));
-    for(int i = 0; i<vertices.size(); i++) {
-      Vertex v = vertices.elementAt(i);
-      if(v.v.size()>=3) continue;
-      Vertex closest = null;
-      Vertex nextclosest = null;
-      Vertex thirdclosest = null;
-      float distclose = 999999;
-      float distnextclose = 999999;
-      float distthirdclose = 999999;
-      for(int j = 0; j<vertices.size(); j++) {
-        Vertex t = vertices.elementAt(j);
-        if(t==v) continue;
-        float dist = dist(v,t);
-        if(dist<distclose) {
-          thirdclosest = nextclosest;
-          distthirdclose = distnextclose;
-          nextclosest = closest;
-          distnextclose = distclose;
-          closest = t;
-          distclose = dist;
-        } else if(dist<distnextclose) {
-          thirdclosest = nextclosest;
-          distthirdclose = distnextclose;
-          nextclosest = t;
-          distnextclose = dist;
-        } else if(dist<distthirdclose) {
-          thirdclosest = t;
-          distthirdclose = dist;
-        };
-      };
+    // only the vertices inside the landscape take part
+    ArrayList<Vertex> pts = new ArrayList<>();
+    for(Vertex v : vertices) {
+      if(v.x>=xstart && v.x<xstart+width && v.y>=ystart && v.y<ystart+height) pts.add(v);
+    };
+    if(delaunay) {
+      int xs[] = new int[pts.size()];
+      int ys[] = new int[pts.size()];
+      for(int i = 0; i<pts.size(); i++) { xs[i] = pts.get(i).x; ys[i] = pts.get(i).y; };
+      int e[] = new Delaunay(xs,ys).edges();
+      for(int i = 0; i<e.length; i += 2) makeline(pts.get(e[i]),pts.get(e[i+1]));
+      return;
+    };
+    VertexGrid grid = new VertexGrid(pts,xstart,ystart,width,height);
+    Vertex near[] = new Vertex[3];
+    for(Vertex v : pts) {
+      if(v.size()>=3) continue;
+      int found = grid.nearest(v,near);
+      if(found==0) continue;
       xp = v.x;
       yp = v.y;
-      makeline(closest,v);
-      if(v.v.size()==3) continue;
-      makeline(v,nextclosest);
-      if(v.v.size()==3) continue;
-      makeline(v,thirdclosest);
+      makeline(near[0],v);
+      if(v.size()==3 || found<2) continue;
+      makeline(v,near[1]);
+      if(v.size()==3 || found<3) continue;
+      makeline(v,near[2]);
     };
   }
 
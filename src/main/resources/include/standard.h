@@ -43,17 +43,13 @@ autotexall() { wall("?") floor("?") ceil("?") }
 
 abs(x) { lessthaneq(x,-1) ? sub(0,x) : x }
 
-for(from,to,body) {
-  lessthaneq(from,to) ? body for(add(from,1),to,body) : 0
-}
+-- loop and loopvar are builtins that do the same as
+--   for(from,to,body) { lessthaneq(from,to) ? body for(add(from,1),to,body) : 0 }
+--   fori(from,to,body) { set("i", from) for(from, to, body inc("i",1)) }
+-- called by their _ names, in case the program has its own loop
+for(from,to,body) { _loop(from,to,body) }
 
-fori(from, to, body) {
-    set("i", from)
-    for(from, to,
-        body
-        inc("i",1)
-    )
-}
+fori(from, to, body) { _loopvar("i", from, to, body) }
 i { get("i") }
 
 inc(i,n) {
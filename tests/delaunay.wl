@@ -0,0 +1,30 @@
+/*
+ * delaunay.wl - part of WadC
+ *
+ * Distributed under the terms of the GNU GPL Version 2
+ * See file LICENSE.txt
+ *
+ * test of delaunaylandscape: landscape with a density of 0 just joins
+ * up the vertices already there. the three along the bottom are nearly
+ * in a line, and the triangulation should still have every edge of
+ * their convex hull, including the long one from the first to the last
+ */
+
+#"standard.h"
+
+main {
+    -- somewhere for the player to stand
+    box(0,128,160,256,256)
+    movestep(128,128) thing
+    movestep(-1128,-128)
+
+    delaunaylandscape
+    movestep(-400,300)
+    step(100,-250)
+    step(298,-50)
+    step(1,621)
+    step(1,96)
+    step(-200,-317)
+    movestep(200,-400)
+    landscape(718,401,0)
+}
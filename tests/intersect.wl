@@ -0,0 +1,30 @@
+#"standard.h"
+
+/*
+ * intersectlines mode: diagonals that cross each other, and lines
+ * ending part-way along existing ones, are split automatically
+ */
+
+-- triangle from the current corner, along the edge and into the middle
+xcorner { straight(256) step(-128,128) step(-128,-128) rightsector(0, 128, 160) }
+
+-- triangle between a corner and the midpoints of its two edges
+dcorner { straight(128) right(128) step(-128,128) rightsector(0, 96, 176) }
+
+main {
+  intersectlines
+
+  -- a box with both diagonals: they cross in the middle
+  quad(straight(256) rotright)
+  step(256,256) movestep(0,-256)
+  step(-256,256) movestep(0,-256)
+  quad(xcorner movestep(256,0) rotright)
+
+  -- a diamond whose corners land half-way along a box's edges
+  movestep(-512,0)
+  quad(straight(256) rotright)
+  movestep(128,0)
+  quad(eright(128))
+  rightsector(0, 128, 160)
+  quad(dcorner movestep(128,-128))
+}